@@ -0,0 +1,115 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import parser.ComputationNode;
+import spl.lae.LinearAlgebraEngine;
+
+/**
+ * LinearAlgebraEngine.run end to end (optimizer, scheduling and kernels) on synthetic expression trees:
+ * <ul>
+ *   <li>chain: a product of six matrices of mixed shapes, where multiplication order matters;</li>
+ *   <li>sum: sixteen operands added, subtracted, negated and transposed, which fuse into one pass;</li>
+ *   <li>mixed: products and sums nested a few levels deep, with independent subtrees.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EngineBenchmark {
+
+    @Param({"chain", "sum", "mixed"})
+    public String tree;
+
+    @Param({"256"})
+    public int size;
+
+    @Param({"4"})
+    public int threads;
+
+    private double[][][] operands;
+    private ComputationNode root;
+    private LinearAlgebraEngine engine;
+
+    // One long-lived engine per trial, as a server would keep it, so thread start-up is not measured
+    @Setup(Level.Trial)
+    public void createOperands() {
+        engine = new LinearAlgebraEngine(threads);
+        operands = new double[16][][];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = Matrices.random(size, size, i);
+        }
+    }
+
+    // run() rewrites the tree in place, so every invocation gets a fresh one
+    @Setup(Level.Invocation)
+    public void createTree() {
+        switch (tree) {
+            case "chain":
+                root = chain();
+                break;
+            case "sum":
+                root = sum();
+                break;
+            default:
+                root = mixed();
+        }
+    }
+
+    @Benchmark
+    public ComputationNode run() {
+        return engine.run(root);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeEngine() {
+        engine.close();
+    }
+
+    private ComputationNode leaf(int i) {
+        return new ComputationNode(operands[i % operands.length]);
+    }
+
+    private static ComputationNode op(String operator, ComputationNode... children) {
+        return new ComputationNode(operator, new ArrayList<>(List.of(children)));
+    }
+
+    private ComputationNode chain() {
+        // size x 8, 8 x size, size x size, size x 8, 8 x size, size x size
+        int thin = 8;
+        double[][] tall = Matrices.random(size, thin, 100);
+        double[][] wide = Matrices.random(thin, size, 101);
+        return op("*",
+                new ComputationNode(tall), new ComputationNode(wide), leaf(0),
+                new ComputationNode(tall), new ComputationNode(wide), leaf(1));
+    }
+
+    private ComputationNode sum() {
+        List<ComputationNode> terms = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            ComputationNode term = leaf(i);
+            if (i % 4 == 1) {
+                term = op("-", term);
+            }
+            else if (i % 4 == 2) {
+                term = op("T", term);
+            }
+            terms.add(term);
+        }
+        return new ComputationNode("+", terms);
+    }
+
+    private ComputationNode mixed() {
+        ComputationNode left = op("*", op("+", leaf(0), op("T", leaf(1))), leaf(2));
+        ComputationNode right = op("*", leaf(3), op("-", leaf(4)));
+        ComputationNode middle = op("+", op("*", leaf(5), leaf(6)), op("T", op("*", leaf(7), leaf(8))));
+        return op("*", op("+", left, right), middle);
+    }
+}
@@ -0,0 +1,87 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import memory.SharedMatrix;
+import parser.BinaryMatrixIO;
+import parser.ComputationNode;
+import parser.InputParser;
+import parser.OutputWriter;
+
+/**
+ * Reading and writing a size x size matrix as JSON and as a binary .lmat file.
+ * Throughput in MB/s is the file size over the average time; the file sizes are printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IoBenchmark {
+
+    @Param({"64", "512", "2048"})
+    public int size;
+
+    private Path dir;
+    private Path jsonInput;
+    private Path binaryInput;
+    private Path output;
+    private SharedMatrix matrix;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("lae-bench");
+        double[][] data = Matrices.random(size, size, 1);
+        matrix = new SharedMatrix(data);
+        jsonInput = dir.resolve("input.json");
+        new ObjectMapper().writeValue(jsonInput.toFile(), data);
+        binaryInput = dir.resolve("input" + BinaryMatrixIO.EXTENSION);
+        BinaryMatrixIO.write(matrix, binaryInput);
+        output = dir.resolve("output");
+        System.out.println("JSON input: " + Files.size(jsonInput) + " bytes, binary input: " + Files.size(binaryInput) + " bytes");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public ComputationNode parseJson() throws ParseException {
+        return new InputParser().parse(jsonInput.toString());
+    }
+
+    @Benchmark
+    public SharedMatrix readBinary() throws IOException, ParseException {
+        return BinaryMatrixIO.read(binaryInput);
+    }
+
+    @Benchmark
+    public void writeJsonPretty() throws IOException {
+        OutputWriter.write(matrix, output.toString(), false);
+    }
+
+    @Benchmark
+    public void writeJsonCompact() throws IOException {
+        OutputWriter.write(matrix, output.toString(), true);
+    }
+
+    @Benchmark
+    public void writeBinary() throws IOException {
+        BinaryMatrixIO.write(matrix, output);
+    }
+}
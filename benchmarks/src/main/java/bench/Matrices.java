@@ -0,0 +1,26 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * Random test data shared by the benchmarks; seeded so every run sees the same numbers.
+ */
+final class Matrices {
+
+    private Matrices() {}
+
+    static double[][] random(int rows, int cols, long seed) {
+        Random random = new Random(seed);
+        double[][] m = new double[rows][cols];
+        for (double[] row : m) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextDouble() * 2 - 1;
+            }
+        }
+        return m;
+    }
+
+    static double[] randomVector(int length, long seed) {
+        return random(1, length, seed)[0];
+    }
+}
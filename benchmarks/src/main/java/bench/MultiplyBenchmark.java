@@ -0,0 +1,58 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import memory.BlockedMatrixMultiply;
+import memory.SharedMatrix;
+import scheduling.TiredExecutor;
+
+/**
+ * Dense matrix multiplication by shape, run on the executor the way the engine runs it.
+ * Packing the operands is part of every operation, as it is in the engine.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MultiplyBenchmark {
+
+    /**
+     * m x k times k x n.
+     */
+    @Param({"square:512x512x512", "tallSkinny:16384x64x64", "outer:2048x1x2048", "inner:64x65536x64"})
+    public String shape;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private SharedMatrix left;
+    private SharedMatrix right;
+    private TiredExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        String[] sizes = shape.substring(shape.indexOf(':') + 1).split("x");
+        int m = Integer.parseInt(sizes[0]);
+        int k = Integer.parseInt(sizes[1]);
+        int n = Integer.parseInt(sizes[2]);
+        left = new SharedMatrix(Matrices.random(m, k, 1));
+        right = new SharedMatrix(Matrices.random(k, n, 2));
+        executor = new TiredExecutor(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public SharedMatrix multiply() {
+        BlockedMatrixMultiply product = new BlockedMatrixMultiply(left, right);
+        executor.submitAll(product.createTileTasks(threads));
+        return product.getResult();
+    }
+}
@@ -0,0 +1,64 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import scheduling.DispatchPolicy;
+import scheduling.ExecutionMode;
+import scheduling.TiredExecutor;
+
+/**
+ * Cost of TiredExecutor.submitAll itself: hand-off, wake-up and completion waiting for a batch of
+ * tiny tasks, by batch size, worker count, scheduling mode and dispatch policy (handoff mode only).
+ * Divide by tasks for the per-task overhead; the fairness each policy bought is printed at teardown.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchedulerBenchmark {
+
+    @Param({"1", "16", "256", "4096"})
+    public int tasks;
+
+    @Param({"1", "4", "8", "128"})
+    public int threads;
+
+    @Param({"HANDOFF", "WORK_STEALING"})
+    public ExecutionMode mode;
+
+    @Param({"LEAST_TIRED", "TWO_CHOICES"})
+    public DispatchPolicy policy;
+
+    @Param({"0", "100"})
+    public int workTokens; // Blackhole.consumeCPU tokens per task; 0 measures pure scheduling
+
+    private TiredExecutor executor;
+    private List<Runnable> batch;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        executor = new TiredExecutor(threads, mode, policy);
+        batch = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            batch.add(() -> Blackhole.consumeCPU(workTokens));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        System.out.print(executor.getFairnessReport());
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public void submitAll() {
+        executor.submitAll(batch);
+    }
+}
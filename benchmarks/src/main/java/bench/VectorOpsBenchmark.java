@@ -0,0 +1,78 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import memory.SharedMatrix;
+import memory.SharedVector;
+import memory.VectorKernels;
+import memory.VectorOrientation;
+
+/**
+ * The SharedVector operations, locks included, by vector length.
+ * Which kernels ran (scalar or SIMD) is printed at setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorOpsBenchmark {
+
+    @Param({"64", "4096", "262144"})
+    public int length;
+
+    private SharedVector left;
+    private SharedVector right;
+
+    @Setup
+    public void setup() {
+        System.out.println("Kernels: " + VectorKernels.implementationName());
+        left = new SharedVector(Matrices.randomVector(length, 1), VectorOrientation.ROW_MAJOR);
+        right = new SharedVector(Matrices.randomVector(length, 2), VectorOrientation.ROW_MAJOR);
+    }
+
+    @Benchmark
+    public SharedVector add() {
+        left.add(right);
+        return left;
+    }
+
+    @Benchmark
+    public SharedVector negate() {
+        left.negate();
+        return left;
+    }
+
+    @Benchmark
+    public double dot() {
+        return left.dot(right);
+    }
+
+    /**
+     * A row vector times a square matrix, which keeps the vector's length so it can be repeated.
+     */
+    @State(Scope.Thread)
+    public static class VecMatMulState {
+        @Param({"128", "512"})
+        public int size;
+
+        SharedVector vector;
+        SharedMatrix matrix;
+
+        @Setup
+        public void setup() {
+            vector = new SharedVector(Matrices.randomVector(size, 3), VectorOrientation.ROW_MAJOR);
+            matrix = new SharedMatrix();
+            matrix.loadColumnMajor(Matrices.random(size, size, 4));
+        }
+    }
+
+    @Benchmark
+    public SharedVector vecMatMul(VecMatMulState state) {
+        state.vector.vecMatMul(state.matrix);
+        return state.vector;
+    }
+}
@@ -0,0 +1,211 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cache-blocked matrix multiplication (left x right) into a fresh row-major matrix.
+ * The right operand is packed once into NR-wide column panels; every tile task packs its own
+ * slice of the left operand into MR-high row panels and runs an MR x NR register-blocked kernel
+ * over KC-deep slices of both.
+ */
+public class BlockedMatrixMultiply {
+
+    static final int MR = 4; // rows of the register block
+    static final int NR = VectorKernels.GEMM_COLUMNS; // columns of the register block, one or more SIMD vectors wide
+    static final int KC = 256; // panel depth: a KC x NR strip of the right operand (8-16 KB) stays in L1
+    static final int MC = 64; // rows per tile: a packed MC x KC block of the left operand (128 KB) stays in L2
+
+    private final SharedMatrix left;
+    private final SharedMatrix result;
+    private final double[] resultData; // row-major storage of result
+    private final double[] packedRight; // NR-wide column panels, each K x NR and zero padded
+    private final int m;
+    private final int k;
+    private final int n;
+
+    public BlockedMatrixMultiply(SharedMatrix left, SharedMatrix right) {
+        if (left.columnCount() != right.rowCount()) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        this.left = left;
+        this.m = left.rowCount();
+        this.k = left.columnCount();
+        this.n = right.columnCount();
+        this.resultData = new double[m * n];
+        this.result = new SharedMatrix(resultData, m, n);
+        this.packedRight = packRight(right);
+    }
+
+    public SharedMatrix getResult() {
+        return result;
+    }
+
+    public int getLeftRows() {
+        return m;
+    }
+
+    public int getInnerDimension() {
+        return k;
+    }
+
+    public int getRightColumns() {
+        return n;
+    }
+
+    /**
+     * Splits the product into tiles so that there are at least {@code parallelism} tasks when the
+     * result is big enough. Each task writes a disjoint block of the result.
+     */
+    public List<Runnable> createTileTasks(int parallelism) {
+        return createTileTasks(parallelism, 0);
+    }
+
+    /**
+     * Same as {@link #createTileTasks(int)}, but every tile covers {@code rowsPerTile} full result rows
+     * when that is positive.
+     */
+    public List<Runnable> createTileTasks(int parallelism, int rowsPerTile) {
+        List<Runnable> tasks = new ArrayList<>();
+        if (m == 0 || n == 0) {
+            return tasks;
+        }
+        int workers = Math.max(1, parallelism);
+        boolean automatic = rowsPerTile <= 0;
+        if (automatic) {
+            rowsPerTile = Math.min(MC, roundUp(ceilDiv(m, workers), MR));
+        }
+        int rowTiles = ceilDiv(m, rowsPerTile);
+        int colsPerTile = n;
+        if (automatic && rowTiles < workers) {
+            // Too few rows to keep every worker busy, so also split the columns
+            colsPerTile = Math.max(NR, roundUp(ceilDiv(n, ceilDiv(workers, rowTiles)), NR));
+        }
+
+        for (int i0 = 0; i0 < m; i0 += rowsPerTile) {
+            for (int j0 = 0; j0 < n; j0 += colsPerTile) {
+                final int rowStart = i0;
+                final int rowEnd = Math.min(m, i0 + rowsPerTile);
+                final int colStart = j0;
+                final int colEnd = Math.min(n, j0 + colsPerTile);
+                tasks.add(() -> computeTile(rowStart, rowEnd, colStart, colEnd));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Computes result[rowStart..rowEnd) x [colStart..colEnd). colStart must be a multiple of NR.
+     */
+    void computeTile(int rowStart, int rowEnd, int colStart, int colEnd) {
+        double[] packedLeft = new double[roundUp(rowEnd - rowStart, MR) * Math.min(KC, Math.max(k, 1))];
+        for (int k0 = 0; k0 < k; k0 += KC) {
+            int kc = Math.min(KC, k - k0);
+            packLeft(rowStart, rowEnd, k0, kc, packedLeft);
+            for (int j = colStart; j < colEnd; j += NR) {
+                int nr = Math.min(NR, colEnd - j);
+                int rightOffset = (j / NR) * k * NR + k0 * NR;
+                for (int i = rowStart; i < rowEnd; i += MR) {
+                    int mr = Math.min(MR, rowEnd - i);
+                    int leftOffset = ((i - rowStart) / MR) * kc * MR;
+                    kernel(packedLeft, leftOffset, packedRight, rightOffset, kc, i * n + j, mr, nr);
+                }
+            }
+        }
+    }
+
+    // Adds the MR x NR block packedLeft * packedRight into the result at resultOffset
+    private void kernel(double[] a, int aOffset, double[] b, int bOffset, int kc, int resultOffset, int mr, int nr) {
+        if (mr == MR && nr == NR) {
+            VectorKernels.gemmBlock(a, aOffset, b, bOffset, kc, resultData, resultOffset, n);
+            return;
+        }
+        // Edge block: the padded panels still hold MR x NR values per step, only part is stored
+        double[] block = new double[MR * NR];
+        for (int p = 0; p < kc; p++) {
+            for (int i = 0; i < MR; i++) {
+                double ai = a[aOffset + p * MR + i];
+                for (int j = 0; j < NR; j++) {
+                    block[i * NR + j] += ai * b[bOffset + p * NR + j];
+                }
+            }
+        }
+        double[] c = resultData;
+        for (int i = 0; i < mr; i++) {
+            for (int j = 0; j < nr; j++) {
+                c[resultOffset + i * n + j] += block[i * NR + j];
+            }
+        }
+    }
+
+    // Packs the whole right operand once; element (row, col) goes to panel col / NR
+    private double[] packRight(SharedMatrix right) {
+        double[] packed = new double[roundUp(n, NR) * k];
+        boolean rowMajor = right.getOrientation() == VectorOrientation.ROW_MAJOR;
+        for (int v = 0; v < right.length(); v++) {
+            SharedVector vector = right.get(v);
+            vector.readLock();
+            try{
+                double[] source = vector.array();
+                int base = vector.offset();
+                int length = vector.length();
+                for (int e = 0; e < length; e++) {
+                    int row = rowMajor ? v : e;
+                    int col = rowMajor ? e : v;
+                    packed[(col / NR) * k * NR + row * NR + col % NR] = source[base + e];
+                }
+            }
+            finally{
+                vector.readUnlock();
+            }
+        }
+        return packed;
+    }
+
+    // Packs left[rowStart..rowEnd) x [k0..k0+kc) into MR-high row panels, zero padding the last one
+    private void packLeft(int rowStart, int rowEnd, int k0, int kc, double[] packed) {
+        java.util.Arrays.fill(packed, 0.0);
+        if (left.getOrientation() == VectorOrientation.ROW_MAJOR) {
+            for (int i = rowStart; i < rowEnd; i++) {
+                SharedVector row = left.get(i);
+                int panelBase = ((i - rowStart) / MR) * kc * MR + (i - rowStart) % MR;
+                row.readLock();
+                try{
+                    double[] source = row.array();
+                    int base = row.offset() + k0;
+                    for (int p = 0; p < kc; p++) {
+                        packed[panelBase + p * MR] = source[base + p];
+                    }
+                }
+                finally{
+                    row.readUnlock();
+                }
+            }
+        }
+        else {
+            for (int p = 0; p < kc; p++) {
+                SharedVector column = left.get(k0 + p);
+                column.readLock();
+                try{
+                    double[] source = column.array();
+                    int base = column.offset();
+                    for (int i = rowStart; i < rowEnd; i++) {
+                        int r = i - rowStart;
+                        packed[(r / MR) * kc * MR + p * MR + r % MR] = source[base + i];
+                    }
+                }
+                finally{
+                    column.readUnlock();
+                }
+            }
+        }
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    private static int roundUp(int value, int multiple) {
+        return ceilDiv(value, multiple) * multiple;
+    }
+}
@@ -0,0 +1,96 @@
+package memory;
+
+/**
+ * 128-bit hashes of a matrix's content, equal for equal matrices whatever form they are stored in
+ * (double[][], dense row- or column-major, CSR or CSC). Every non-zero entry is hashed with its
+ * position, and the entry hashes are summed, so the order entries are visited in does not matter
+ * and zeros cost nothing for sparse matrices. -0.0 counts as a non-zero entry, as it prints differently.
+ * The result is {high, low}.
+ */
+public final class ContentHash {
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private ContentHash() {
+    }
+
+    public static long[] of(double[][] matrix) {
+        int rows = matrix.length;
+        int cols = rows == 0 ? 0 : matrix[0].length;
+        long[] sums = new long[2];
+        for (int i = 0; i < rows; i++) {
+            double[] row = matrix[i];
+            long base = (long) i * cols;
+            for (int j = 0; j < cols; j++) {
+                add(sums, base + j, row[j]);
+            }
+        }
+        return finish(sums, rows, cols);
+    }
+
+    public static long[] of(SharedMatrix matrix) {
+        int rows = matrix.rowCount();
+        int cols = matrix.columnCount();
+        boolean rowMajor = matrix.getOrientation() == VectorOrientation.ROW_MAJOR;
+        long[] sums = new long[2];
+        for (int v = 0; v < matrix.length(); v++) {
+            SharedVector vector = matrix.get(v);
+            vector.readLock();
+            try{
+                double[] source = vector.array();
+                int offset = vector.offset();
+                int length = vector.length();
+                for (int e = 0; e < length; e++) {
+                    long position = rowMajor ? (long) v * cols + e : (long) e * cols + v;
+                    add(sums, position, source[offset + e]);
+                }
+            }
+            finally{
+                vector.readUnlock();
+            }
+        }
+        return finish(sums, rows, cols);
+    }
+
+    public static long[] of(SparseMatrix matrix) {
+        int rows = matrix.rowCount();
+        int cols = matrix.columnCount();
+        boolean rowCompressed = matrix.isRowCompressed();
+        int[] pointers = matrix.pointers();
+        int[] indices = matrix.indices();
+        double[] values = matrix.values();
+        long[] sums = new long[2];
+        int major = rowCompressed ? rows : cols;
+        for (int a = 0; a < major; a++) {
+            for (int p = pointers[a]; p < pointers[a + 1]; p++) {
+                long position = rowCompressed ? (long) a * cols + indices[p] : (long) indices[p] * cols + a;
+                add(sums, position, values[p]);
+            }
+        }
+        return finish(sums, rows, cols);
+    }
+
+    private static void add(long[] sums, long position, double value) {
+        long bits = Double.doubleToLongBits(value);
+        if (bits == 0) {
+            return;
+        }
+        long x = mix(position * SEED + bits);
+        sums[0] += x;
+        sums[1] += x * x;
+    }
+
+    private static long[] finish(long[] sums, int rows, int cols) {
+        long shape = ((long) rows << 32) | (cols & 0xFFFFFFFFL);
+        return new long[]{mix(sums[0] ^ shape), mix(sums[1] + shape * SEED)};
+    }
+
+    /**
+     * The SplitMix64 finalizer: spreads every input bit over the whole result.
+     */
+    public static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,214 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes sum(coefficients[t] * terms[t]) into a fresh row-major matrix in a single pass.
+ * Every term is read once and every output element is written by one task, whatever mix of
+ * row-major and column-major (for example transposed) terms it is given.
+ * Sparse terms are scattered into each block after the dense ones, touching only their stored entries;
+ * where one with a non-negative coefficient stores nothing, a -0.0 sum is turned into the +0.0 that
+ * adding its missing +0.0 would have given.
+ */
+public class FusedElementwise {
+
+    static final int BLOCK_ELEMENTS = 4096; // output elements per block, so a block stays in L1 while every term is added
+
+    private final SharedMatrix[] terms;
+    private final double[] coefficients;
+    private final SparseMatrix[] sparseTerms; // in CSR form
+    private final double[] sparseCoefficients;
+    private final double[] resultData; // row-major storage of result
+    private final SharedMatrix result;
+    private final int rows;
+    private final int cols;
+
+    public FusedElementwise(List<SharedMatrix> terms, double[] coefficients) {
+        this(terms, coefficients, List.of(), new double[0]);
+    }
+
+    /**
+     * Dense terms plus sparse ones; there must be at least one dense term, which sets the shape.
+     */
+    public FusedElementwise(List<SharedMatrix> terms, double[] coefficients, List<SparseMatrix> sparseTerms, double[] sparseCoefficients) {
+        if (terms.isEmpty() || terms.size() != coefficients.length || sparseTerms.size() != sparseCoefficients.length) {
+            throw new IllegalArgumentException("Need one coefficient per term");
+        }
+        this.terms = terms.toArray(new SharedMatrix[0]);
+        this.coefficients = coefficients.clone();
+        this.rows = this.terms[0].rowCount();
+        this.cols = this.terms[0].columnCount();
+        for (SharedMatrix term : this.terms) {
+            if (term.rowCount() != rows || term.columnCount() != cols) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+        }
+        this.sparseTerms = new SparseMatrix[sparseTerms.size()];
+        for (int t = 0; t < this.sparseTerms.length; t++) {
+            SparseMatrix term = sparseTerms.get(t);
+            if (term.rowCount() != rows || term.columnCount() != cols) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            this.sparseTerms[t] = term.toRowCompressed();
+        }
+        this.sparseCoefficients = sparseCoefficients.clone();
+        this.resultData = new double[rows * cols];
+        this.result = new SharedMatrix(resultData, rows, cols);
+    }
+
+    public SharedMatrix getResult() {
+        return result;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Number of element reads and writes needed per result row, for sizing tasks.
+     */
+    public long getCostPerRow() {
+        long sparseEntries = 0;
+        for (SparseMatrix term : sparseTerms) {
+            sparseEntries += term.nonZeros() / Math.max(1, rows);
+        }
+        return (long) cols * (terms.length + 1) + sparseEntries;
+    }
+
+    /**
+     * One task per {@code rowsPerTask} result rows.
+     */
+    public List<Runnable> createRowTasks(int rowsPerTask) {
+        List<Runnable> tasks = new ArrayList<>();
+        int chunk = Math.max(1, rowsPerTask);
+        for (int start = 0; start < rows; start += chunk) {
+            final int from = start;
+            final int to = Math.min(rows, start + chunk);
+            tasks.add(() -> computeRows(from, to));
+        }
+        return tasks;
+    }
+
+    void computeRows(int from, int to) {
+        if (cols == 0) {
+            return;
+        }
+        int blockRows = Math.max(1, Math.min(64, BLOCK_ELEMENTS / cols));
+        List<SharedVector> locked = lockTerms(from, to);
+        try{
+            for (int r0 = from; r0 < to; r0 += blockRows) {
+                int r1 = Math.min(to, r0 + blockRows);
+                for (int t = 0; t < terms.length; t++) {
+                    accumulate(t, r0, r1, t == 0);
+                }
+                for (int t = 0; t < sparseTerms.length; t++) {
+                    scatter(t, r0, r1);
+                }
+                for (int t = 0; t < sparseTerms.length; t++) {
+                    if (Double.doubleToRawLongBits(sparseCoefficients[t]) >= 0) {
+                        addMissingZeros(t, r0, r1);
+                    }
+                }
+            }
+        }
+        finally{
+            for (SharedVector v : locked) {
+                v.readUnlock();
+            }
+        }
+    }
+
+    // Adds coefficient * term into result rows [r0, r1); the first term assigns instead of adding
+    private void accumulate(int t, int r0, int r1, boolean assign) {
+        SharedMatrix term = terms[t];
+        double coefficient = coefficients[t];
+        double[] out = resultData;
+        if (term.getOrientation() == VectorOrientation.ROW_MAJOR) {
+            for (int i = r0; i < r1; i++) {
+                SharedVector row = term.get(i);
+                double[] source = row.array();
+                int base = row.offset();
+                int target = i * cols;
+                if (assign) {
+                    VectorKernels.scale(coefficient, source, base, out, target, cols);
+                }
+                else {
+                    VectorKernels.axpy(coefficient, source, base, out, target, cols);
+                }
+            }
+        }
+        else {
+            for (int j = 0; j < cols; j++) {
+                SharedVector column = term.get(j);
+                double[] source = column.array();
+                int base = column.offset();
+                if (assign) {
+                    for (int i = r0; i < r1; i++) {
+                        out[i * cols + j] = coefficient * source[base + i];
+                    }
+                }
+                else {
+                    for (int i = r0; i < r1; i++) {
+                        out[i * cols + j] += coefficient * source[base + i];
+                    }
+                }
+            }
+        }
+    }
+
+    private void scatter(int t, int r0, int r1) {
+        int[] pointers = sparseTerms[t].pointers();
+        int[] indices = sparseTerms[t].indices();
+        double[] values = sparseTerms[t].values();
+        double coefficient = sparseCoefficients[t];
+        for (int i = r0; i < r1; i++) {
+            int target = i * cols;
+            for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                resultData[target + indices[p]] += coefficient * values[p];
+            }
+        }
+    }
+
+    // coefficient * +0.0 is +0.0 for every entry the term does not store, and -0.0 + +0.0 is +0.0
+    private void addMissingZeros(int t, int r0, int r1) {
+        int[] pointers = sparseTerms[t].pointers();
+        int[] indices = sparseTerms[t].indices();
+        for (int i = r0; i < r1; i++) {
+            int target = i * cols;
+            int p = pointers[i];
+            for (int j = 0; j < cols; j++) {
+                if (p < pointers[i + 1] && indices[p] == j) {
+                    p++;
+                }
+                else if (resultData[target + j] == 0) {
+                    resultData[target + j] = 0.0;
+                }
+            }
+        }
+    }
+
+    // Read-locks every vector the rows [from, to) touch, once for the whole task
+    private List<SharedVector> lockTerms(int from, int to) {
+        List<SharedVector> locked = new ArrayList<>();
+        try{
+            for (SharedMatrix term : terms) {
+                boolean rowMajor = term.getOrientation() == VectorOrientation.ROW_MAJOR;
+                int first = rowMajor ? from : 0;
+                int last = rowMajor ? to : cols;
+                for (int v = first; v < last; v++) {
+                    SharedVector vector = term.get(v);
+                    vector.readLock();
+                    locked.add(vector);
+                }
+            }
+        }
+        catch(RuntimeException e){
+            for (SharedVector v : locked) {
+                v.readUnlock();
+            }
+            throw e;
+        }
+        return locked;
+    }
+}
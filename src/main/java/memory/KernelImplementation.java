@@ -0,0 +1,43 @@
+package memory;
+
+/**
+ * The raw-array loops behind {@link VectorKernels}. There is a portable scalar version and, in
+ * builds made with the {@code simd} profile, one on the JDK Vector API; {@link VectorKernels}
+ * picks one when it is first used.
+ */
+public interface KernelImplementation {
+
+    /**
+     * Short description for logs and reports, such as "scalar" or the vector shape in use.
+     */
+    String name();
+
+    void add(double[] dst, int dstOffset, double[] src, int srcOffset, int length);
+
+    void subtract(double[] dst, int dstOffset, double[] src, int srcOffset, int length);
+
+    void negate(double[] data, int offset, int length);
+
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * dst[dstOffset + i] = alpha * src[srcOffset + i] for i in [0, length).
+     */
+    void scale(double alpha, double[] src, int srcOffset, double[] dst, int dstOffset, int length);
+
+    /**
+     * dst[dstOffset + i] += alpha * src[srcOffset + i] for i in [0, length).
+     */
+    void axpy(double alpha, double[] src, int srcOffset, double[] dst, int dstOffset, int length);
+
+    /**
+     * Columns of the GEMM register block, which sets how {@link BlockedMatrixMultiply} packs the right operand.
+     */
+    int gemmColumns();
+
+    /**
+     * Adds the full 4 x gemmColumns() block a * b into c, where a holds kc packed columns of 4
+     * values and b kc packed rows of gemmColumns() values. c is row-major with row stride ldc.
+     */
+    void gemmBlock(double[] a, int aOffset, double[] b, int bOffset, int kc, double[] c, int cOffset, int ldc);
+}
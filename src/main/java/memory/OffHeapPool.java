@@ -0,0 +1,90 @@
+package memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out direct (off-heap) buffers and takes them back when a matrix is released, so
+ * intermediates are reused instead of waiting for the garbage collector to free their memory.
+ * Buffers are kept in power-of-two size classes, and at most {@code maxPooledBytes} are kept idle.
+ */
+public final class OffHeapPool {
+
+    private static final int MIN_CLASS = 12; // smallest buffer is 4 KiB
+    private static final int MAX_CLASS = 30; // largest buffer is 1 GiB, the biggest power of two a ByteBuffer can hold
+
+    private static final OffHeapPool SHARED = new OffHeapPool(256L << 20);
+
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> free = new ArrayList<>(MAX_CLASS + 1); // indexed by size class
+    private final long maxPooledBytes;
+    private final AtomicLong pooledBytes = new AtomicLong(); // idle, waiting in the pool
+    private final AtomicLong liveBytes = new AtomicLong(); // handed out and not recycled yet
+
+    public OffHeapPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        for (int c = 0; c <= MAX_CLASS; c++) {
+            free.add(c < MIN_CLASS ? null : new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    public static OffHeapPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns a native-order direct buffer with room for at least {@code doubles} values, its limit set to exactly that many.
+     */
+    public ByteBuffer acquire(int doubles) {
+        long bytes = 8L * doubles;
+        int sizeClass = Math.max(MIN_CLASS, 64 - Long.numberOfLeadingZeros(Math.max(1, bytes) - 1));
+        if (sizeClass > MAX_CLASS) {
+            throw new IllegalArgumentException("Cannot allocate " + bytes + " bytes off heap in one buffer");
+        }
+        ByteBuffer buffer = free.get(sizeClass).poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+        }
+        else {
+            buffer = ByteBuffer.allocateDirect(1 << sizeClass).order(ByteOrder.nativeOrder());
+        }
+        liveBytes.addAndGet(buffer.capacity());
+        buffer.clear().limit((int) bytes);
+        return buffer;
+    }
+
+    public void recycle(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        liveBytes.addAndGet(-capacity);
+        if (pooledBytes.addAndGet(capacity) <= maxPooledBytes) {
+            free.get(Integer.numberOfTrailingZeros(capacity)).offer(buffer);
+        }
+        else {
+            // Over budget: leave it to the collector
+            pooledBytes.addAndGet(-capacity);
+        }
+    }
+
+    /**
+     * Drops every idle buffer.
+     */
+    public void trim() {
+        for (int c = MIN_CLASS; c <= MAX_CLASS; c++) {
+            ByteBuffer buffer;
+            while ((buffer = free.get(c).poll()) != null) {
+                pooledBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+
+    public long getLiveBytes() {
+        return liveBytes.get();
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+}
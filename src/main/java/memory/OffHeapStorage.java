@@ -0,0 +1,36 @@
+package memory;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * A block of doubles held in a pooled direct buffer while a matrix is parked. It has a single
+ * owner, which copies it back or releases it exactly once.
+ */
+final class OffHeapStorage {
+
+    private final OffHeapPool pool;
+    private final ByteBuffer bytes;
+    private final DoubleBuffer doubles;
+    private final int length;
+
+    OffHeapStorage(OffHeapPool pool, double[] source, int length) {
+        this.pool = pool;
+        this.bytes = pool.acquire(length);
+        this.doubles = bytes.asDoubleBuffer();
+        this.length = length;
+        doubles.put(0, source, 0, length);
+    }
+
+    int length() {
+        return length;
+    }
+
+    void copyTo(double[] target) {
+        doubles.get(0, target, 0, length);
+    }
+
+    void release() {
+        pool.recycle(bytes);
+    }
+}
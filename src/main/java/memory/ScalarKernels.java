@@ -0,0 +1,91 @@
+package memory;
+
+/**
+ * Plain Java loops; always available, and what the JIT auto-vectorizes where it can.
+ */
+final class ScalarKernels implements KernelImplementation {
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public void add(double[] dst, int dstOffset, double[] src, int srcOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] += src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public void subtract(double[] dst, int dstOffset, double[] src, int srcOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] -= src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public void negate(double[] data, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            data[offset + i] = -data[offset + i];
+        }
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double result = 0;
+        for (int i = 0; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public void scale(double alpha, double[] src, int srcOffset, double[] dst, int dstOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] = alpha * src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] src, int srcOffset, double[] dst, int dstOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[dstOffset + i] += alpha * src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public int gemmColumns() {
+        return 4;
+    }
+
+    // 4 x 4 block held in sixteen locals so that they stay in registers
+    @Override
+    public void gemmBlock(double[] a, int aOffset, double[] b, int bOffset, int kc, double[] c, int cOffset, int ldc) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p = 0; p < kc; p++) {
+            double a0 = a[aOffset];
+            double a1 = a[aOffset + 1];
+            double a2 = a[aOffset + 2];
+            double a3 = a[aOffset + 3];
+            double b0 = b[bOffset];
+            double b1 = b[bOffset + 1];
+            double b2 = b[bOffset + 2];
+            double b3 = b[bOffset + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+            aOffset += 4;
+            bOffset += 4;
+        }
+        int r0 = cOffset, r1 = r0 + ldc, r2 = r1 + ldc, r3 = r2 + ldc;
+        c[r0] += c00; c[r0 + 1] += c01; c[r0 + 2] += c02; c[r0 + 3] += c03;
+        c[r1] += c10; c[r1 + 1] += c11; c[r1 + 2] += c12; c[r1 + 3] += c13;
+        c[r2] += c20; c[r2 + 1] += c21; c[r2 + 2] += c22; c[r2 + 3] += c23;
+        c[r3] += c30; c[r3 + 1] += c31; c[r3 + 2] += c32; c[r3 + 3] += c33;
+    }
+}
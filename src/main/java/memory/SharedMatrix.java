@@ -1,19 +1,96 @@
 package memory;
 
+/**
+ * A matrix stored in a single contiguous array, vector after vector.
+ * The vectors handed out by {@link #get(int)} are slices of that array, so no element is
+ * copied when a matrix is split into rows or columns. They are only created once someone asks
+ * for them, which keeps {@link #transposed()} O(1).
+ * <p>
+ * A matrix can also be parked with {@link #park()} while nothing is computing on it. This is a
+ * spill cache, not a second storage: the elements are copied to a pooled direct buffer and the
+ * first access to its vectors copies them back into a fresh array, since kernels only work on
+ * plain arrays.
+ */
 public class SharedMatrix {
 
-    private volatile SharedVector[] vectors = {}; // underlying vectors
+    // Backing array and how it is cut into vectors; replaced as a whole when the matrix is reloaded
+    private static final class Layout {
+        final double[] storage; // null while parked
+        final OffHeapStorage offHeap; // set only while parked
+        final int numVectors;
+        final int vectorLength;
+        final VectorOrientation orientation;
+        volatile boolean shared = false; // storage also backs a transposed view, so it must stay put
+        private volatile SharedVector[] views = null; // created on first use
+
+        Layout(double[] storage, int numVectors, int vectorLength, VectorOrientation orientation) {
+            this(storage, null, numVectors, vectorLength, orientation);
+        }
+
+        Layout(OffHeapStorage offHeap, int numVectors, int vectorLength, VectorOrientation orientation) {
+            this(null, offHeap, numVectors, vectorLength, orientation);
+        }
+
+        private Layout(double[] storage, OffHeapStorage offHeap, int numVectors, int vectorLength, VectorOrientation orientation) {
+            this.storage = storage;
+            this.offHeap = offHeap;
+            this.numVectors = numVectors;
+            this.vectorLength = vectorLength;
+            this.orientation = orientation;
+        }
+
+        SharedVector[] views() {
+            SharedVector[] result = views;
+            if (result == null) {
+                synchronized (this) {
+                    result = views;
+                    if (result == null) {
+                        result = new SharedVector[numVectors];
+                        for (int i = 0; i < numVectors; i++) {
+                            result[i] = new SharedVector(storage, i * vectorLength, vectorLength, orientation);
+                        }
+                        views = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final Layout EMPTY = new Layout(new double[0], 0, 0, VectorOrientation.ROW_MAJOR);
+
+    private volatile Layout layout = EMPTY;
 
     public SharedMatrix() {
-        vectors = new SharedVector[0];
     }
 
     public SharedMatrix(double[][] matrix) {
         loadRowMajor(matrix);
     }
 
+    /**
+     * Creates a zero-filled rows x cols matrix stored row-major.
+     */
+    public SharedMatrix(int rows, int cols) {
+        this(new double[rows * cols], rows, cols);
+    }
+
+    /**
+     * Wraps {@code storage}, laid out row after row, as a rows x cols matrix without copying it.
+     */
+    public SharedMatrix(double[] storage, int rows, int cols) {
+        if (storage.length != rows * cols) {
+            throw new IllegalArgumentException("Storage of length " + storage.length + " cannot hold a " + rows + "x" + cols + " matrix");
+        }
+        layout = new Layout(storage, rows, cols, VectorOrientation.ROW_MAJOR);
+    }
+
+    private SharedMatrix(Layout layout) {
+        this.layout = layout;
+    }
+
     public void loadRowMajor(double[][] matrix) {
-        SharedVector[] oldVectors = this.vectors;
+        SharedVector[] oldVectors = this.layout.views;
 
         if (oldVectors != null) {
             acquireAllVectorWriteLocks(oldVectors);
@@ -22,17 +99,15 @@ public class SharedMatrix {
         try{
             if(matrix.length != 0)
             {
-                vectors = new SharedVector[matrix.length];
+                int cols = matrix[0].length;
+                double[] storage = new double[matrix.length * cols];
                 for(int row = 0; row < matrix.length; row++){
-                    double[] temp = new double[matrix[0].length];
-                    for(int col = 0; col < matrix[0].length; col++){
-                        temp[col] = matrix[row][col];
-                    }
-                    vectors[row] = new SharedVector(temp, VectorOrientation.ROW_MAJOR);
+                    System.arraycopy(matrix[row], 0, storage, row * cols, cols);
                 }
+                layout = new Layout(storage, matrix.length, cols, VectorOrientation.ROW_MAJOR);
             }
             else {
-                vectors = new SharedVector[0];
+                layout = EMPTY;
             }
         }
         finally{
@@ -44,7 +119,7 @@ public class SharedMatrix {
     }
 
     public void loadColumnMajor(double[][] matrix) {
-        SharedVector[] oldVectors = this.vectors;
+        SharedVector[] oldVectors = this.layout.views;
 
         if (oldVectors != null) {
             acquireAllVectorWriteLocks(oldVectors);
@@ -53,17 +128,19 @@ public class SharedMatrix {
         try{
             if(matrix.length != 0)
             {
-                vectors = new SharedVector[matrix[0].length];
-                for(int col = 0; col < matrix[0].length; col++){
-                    double[] temp = new double[matrix.length];
-                    for(int row = 0; row < matrix.length; row++){
-                        temp[row] = matrix[row][col];
+                int rows = matrix.length;
+                int cols = matrix[0].length;
+                double[] storage = new double[rows * cols];
+                for(int row = 0; row < rows; row++){
+                    double[] source = matrix[row];
+                    for(int col = 0; col < cols; col++){
+                        storage[col * rows + row] = source[col];
                     }
-                    vectors[col] = new SharedVector(temp, VectorOrientation.COLUMN_MAJOR);
                 }
+                layout = new Layout(storage, cols, rows, VectorOrientation.COLUMN_MAJOR);
             }
             else {
-                vectors = new SharedVector[0];
+                layout = EMPTY;
             }
         }
         finally{
@@ -75,24 +152,28 @@ public class SharedMatrix {
     }
 
     public double[][] readRowMajor() {
+        SharedVector[] vectors = heapLayout().views();
         if(vectors.length != 0)
         {
             acquireAllVectorReadLocks(vectors);
             try{
                 if(vectors[0].getOrientation().equals(VectorOrientation.ROW_MAJOR)){
-                    double[][] result = new double[vectors.length][vectors[0].length()];
+                    double[][] result = new double[vectors.length][];
                     for(int row = 0; row < vectors.length; row++){
-                        for(int col = 0; col < vectors[0].length(); col++){
-                            result[row][col] = vectors[row].get(col);
-                        }
+                        SharedVector v = vectors[row];
+                        result[row] = java.util.Arrays.copyOfRange(v.array(), v.offset(), v.offset() + v.length());
                     }
                     return result;
                 }
                 else{
-                    double[][] result = new double[vectors[0].length()][vectors.length];
+                    int rows = vectors[0].length();
+                    double[][] result = new double[rows][vectors.length];
                     for(int col = 0; col < vectors.length; col++){
-                        for(int row = 0; row < vectors[0].length(); row++){
-                            result[row][col] = vectors[col].get(row);
+                        SharedVector v = vectors[col];
+                        double[] source = v.array();
+                        int base = v.offset();
+                        for(int row = 0; row < rows; row++){
+                            result[row][col] = source[base + row];
                         }
                     }
                     return result;
@@ -107,17 +188,202 @@ public class SharedMatrix {
         return new double[0][0];
     }
 
+    /**
+     * Returns the transpose of this matrix as a view over the same storage: rows are read as
+     * columns and vice versa. Nothing is copied, and writes through either matrix show in both.
+     * A parked matrix is brought back first, and neither side can be parked afterwards.
+     */
+    public SharedMatrix transposed() {
+        Layout l;
+        synchronized (this) {
+            l = heapLayout();
+            l.shared = true;
+        }
+        VectorOrientation flipped = getOrientation() == VectorOrientation.ROW_MAJOR
+                ? VectorOrientation.COLUMN_MAJOR
+                : VectorOrientation.ROW_MAJOR;
+        Layout view = new Layout(l.storage, l.numVectors, l.vectorLength, flipped);
+        view.shared = true;
+        return new SharedMatrix(view);
+    }
+
+    /**
+     * Returns this matrix stored with the given orientation: itself if it already is,
+     * otherwise a re-laid-out copy holding the same logical matrix.
+     */
+    public SharedMatrix withOrientation(VectorOrientation orientation) {
+        if (getOrientation() == orientation || length() == 0) {
+            return this;
+        }
+        SharedVector[] vectors = heapLayout().views();
+        int vectorLength = vectors[0].length();
+        double[] storage = new double[vectors.length * vectorLength];
+        acquireAllVectorReadLocks(vectors);
+        try{
+            // Element e of vector v becomes element v of vector e; walked in blocks to stay in cache
+            final int block = 64;
+            for (int v0 = 0; v0 < vectors.length; v0 += block) {
+                int v1 = Math.min(vectors.length, v0 + block);
+                for (int e0 = 0; e0 < vectorLength; e0 += block) {
+                    int e1 = Math.min(vectorLength, e0 + block);
+                    for (int v = v0; v < v1; v++) {
+                        double[] source = vectors[v].array();
+                        int base = vectors[v].offset();
+                        for (int e = e0; e < e1; e++) {
+                            storage[e * vectors.length + v] = source[base + e];
+                        }
+                    }
+                }
+            }
+        }
+        finally{
+            releaseAllVectorReadLocks(vectors);
+        }
+        return new SharedMatrix(new Layout(storage, vectorLength, vectors.length, orientation));
+    }
+
     public SharedVector get(int index) {
-        return vectors[index];
+        return heapLayout().views()[index];
+    }
+
+    /**
+     * Copies the storage into a pooled direct buffer and drops the array, so the matrix no longer
+     * counts towards the heap while it waits to be used; the next call to {@link #get(int)} copies
+     * it back. Vectors handed out before are detached and throw on their next use instead of
+     * writing to an array nobody reads any more. Does nothing if a transposed view shares the storage.
+     */
+    public void park() {
+        park(OffHeapPool.shared());
+    }
+
+    /**
+     * Same as {@link #park()}, taking the buffer from {@code pool}.
+     */
+    public synchronized void park(OffHeapPool pool) {
+        Layout l = this.layout;
+        if (l.offHeap != null || l.numVectors == 0 || l.shared) {
+            return;
+        }
+        SharedVector[] views = l.views;
+        if (views != null) {
+            acquireAllVectorReadLocks(views);
+        }
+        try{
+            VectorOrientation orientation = getOrientation();
+            int vectorLength = vectorLength(l);
+            OffHeapStorage block = new OffHeapStorage(pool, l.storage, l.numVectors * vectorLength);
+            layout = new Layout(block, l.numVectors, vectorLength, orientation);
+            detach(views);
+        }
+        finally{
+            if (views != null) {
+                releaseAllVectorReadLocks(views);
+            }
+        }
+    }
+
+    /**
+     * Copies a parked matrix back into an array and returns its buffer to the pool.
+     * Does nothing for a matrix that is not parked.
+     */
+    public void unpark() {
+        heapLayout();
+    }
+
+    public boolean isParked() {
+        return layout.offHeap != null;
+    }
+
+    /**
+     * Frees the storage right away, returning a parked buffer to the pool, and leaves an empty matrix.
+     * Vectors handed out before are detached; transposed views taken earlier keep their own reference and stay valid.
+     */
+    public synchronized void release() {
+        Layout l = this.layout;
+        layout = EMPTY;
+        detach(l.views);
+        if (l.offHeap != null) {
+            l.offHeap.release();
+        }
+    }
+
+    private static void detach(SharedVector[] views) {
+        if (views != null) {
+            for (SharedVector v : views) {
+                v.detach();
+            }
+        }
+    }
+
+    // The layout to work on, copying the matrix back first if it is parked
+    private Layout heapLayout() {
+        Layout l = this.layout;
+        if (l.offHeap == null) {
+            return l;
+        }
+        synchronized (this) {
+            l = this.layout;
+            if (l.offHeap != null) {
+                double[] storage = new double[l.offHeap.length()];
+                l.offHeap.copyTo(storage);
+                layout = new Layout(storage, l.numVectors, l.vectorLength, l.orientation);
+                l.offHeap.release();
+                l = layout;
+            }
+            return l;
+        }
     }
 
     public int length() {
-        return vectors.length;
+        return layout.numVectors;
+    }
+
+    /**
+     * True if no element is infinite or NaN.
+     */
+    public boolean isFinite() {
+        for (int v = 0; v < length(); v++) {
+            SharedVector vector = get(v);
+            vector.readLock();
+            try{
+                double[] source = vector.array();
+                int offset = vector.offset();
+                for (int e = 0; e < vector.length(); e++) {
+                    if (!Double.isFinite(source[offset + e])) {
+                        return false;
+                    }
+                }
+            }
+            finally{
+                vector.readUnlock();
+            }
+        }
+        return true;
+    }
+
+    public int rowCount() {
+        Layout l = this.layout;
+        if(l.numVectors == 0) return 0;
+        return getOrientation() == VectorOrientation.ROW_MAJOR ? l.numVectors : vectorLength(l);
+    }
+
+    public int columnCount() {
+        Layout l = this.layout;
+        if(l.numVectors == 0) return 0;
+        return getOrientation() == VectorOrientation.ROW_MAJOR ? vectorLength(l) : l.numVectors;
     }
 
     public VectorOrientation getOrientation() {
-        if(vectors.length == 0) return VectorOrientation.ROW_MAJOR;
-        return vectors[0].getOrientation();
+        Layout l = this.layout;
+        SharedVector[] views = l.views;
+        // Once handed out, the vectors themselves can be transposed, and they decide
+        if(views != null && views.length != 0) return views[0].getOrientation();
+        return l.orientation;
+    }
+
+    private static int vectorLength(Layout l) {
+        SharedVector[] views = l.views;
+        return views != null && views.length != 0 ? views[0].length() : l.vectorLength;
     }
 
     private void acquireAllVectorReadLocks(SharedVector[] vecs) {
@@ -4,19 +4,38 @@ import java.util.concurrent.locks.ReadWriteLock;
 
 public class SharedVector {
 
-    private double[] vector;
-    private VectorOrientation orientation;
+    private double[] vector; // backing array, possibly shared with a SharedMatrix
+    private int offset; // index of this vector's first element inside the backing array
+    private volatile int length; // number of elements that belong to this vector
+    private volatile VectorOrientation orientation;
     private ReadWriteLock lock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+    private volatile boolean detached = false; // the owning matrix moved its elements elsewhere
 
     public SharedVector(double[] vector, VectorOrientation orientation) {
+        this(vector, 0, vector.length, orientation);
+    }
+
+    /**
+     * Creates a vector that is a slice of {@code vector}, starting at {@code offset}.
+     * The array is not copied, so writes through this vector are visible to whoever owns it.
+     */
+    public SharedVector(double[] vector, int offset, int length, VectorOrientation orientation) {
+        if (offset < 0 || length < 0 || offset + length > vector.length) {
+            throw new IllegalArgumentException("Illegal slice: offset " + offset + ", length " + length);
+        }
         this.vector = vector;
+        this.offset = offset;
+        this.length = length;
         this.orientation = orientation;
     }
 
     public double get(int index) {
         readLock();
         try{
-            return vector[index];
+            if (index < 0 || index >= length) {
+                throw new ArrayIndexOutOfBoundsException(index);
+            }
+            return vector[offset + index];
         }
         finally{
             readUnlock();
@@ -24,37 +43,62 @@ public class SharedVector {
         
     }
 
+    // length and orientation are only changed under the write lock and are volatile,
+    // so reading them does not need the lock
     public int length() {
-        readLock();
-        try{
-            return vector.length;
-        }
-        finally{
-            readUnlock();
-        }
+        return length;
     }
 
     public VectorOrientation getOrientation() {
-        readLock();
-        try{
-            return this.orientation;
-        }
-        finally{
-            readUnlock();
-        }
-        
+        return this.orientation;
+    }
+
+    /**
+     * Borrows the backing array, for kernels that loop over it directly.
+     * The vector's elements are array()[offset() .. offset() + length()).
+     * Only valid while the caller holds this vector's read lock (or write lock, to modify it).
+     */
+    public double[] array() {
+        return vector;
+    }
+
+    /**
+     * Index of this vector's first element in {@link #array()}; same locking rules apply.
+     */
+    public int offset() {
+        return offset;
     }
 
+    /**
+     * Locks this vector for writing.
+     * @throws IllegalStateException if the matrix it was taken from has since been parked or released
+     */
     public void writeLock() {
         lock.writeLock().lock();
+        if (detached) {
+            lock.writeLock().unlock();
+            throw new IllegalStateException("Vector of a parked or released matrix; get it from the matrix again");
+        }
     }
 
     public void writeUnlock() {
         lock.writeLock().unlock();
     }
 
+    /**
+     * Locks this vector for reading; throws like {@link #writeLock()} once detached.
+     */
     public void readLock() {
         lock.readLock().lock();
+        if (detached) {
+            lock.readLock().unlock();
+            throw new IllegalStateException("Vector of a parked or released matrix; get it from the matrix again");
+        }
+    }
+
+    // Called by the owning matrix, while no writer holds this vector, when its storage is moved or freed
+    void detach() {
+        detached = true;
     }
 
     public void readUnlock() {
@@ -78,12 +122,16 @@ public class SharedVector {
 
     public void add(SharedVector other) {
         writeLock();
-        other.readLock();
         try{
-            if(length() == other.length() && getOrientation().equals(other.orientation)){
-                for(int i = 0; i < length();i++){
-                    vector[i] += other.vector[i];
-                }
+            other.readLock();
+        }
+        catch(IllegalStateException e){
+            writeUnlock(); // other was detached; do not keep this one locked
+            throw e;
+        }
+        try{
+            if(length == other.length && orientation == other.orientation){
+                VectorKernels.add(vector, offset, other.vector, other.offset, length);
             }
             else{
                 throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
@@ -95,13 +143,34 @@ public class SharedVector {
         }
     }
 
-    public void negate() {
+    public void subtract(SharedVector other) {
         writeLock();
         try{
-            for(int i = 0; i < length();i++){
-                vector[i] = -vector[i];
+            other.readLock();
+        }
+        catch(IllegalStateException e){
+            writeUnlock(); // other was detached; do not keep this one locked
+            throw e;
+        }
+        try{
+            if(length == other.length && orientation == other.orientation){
+                VectorKernels.subtract(vector, offset, other.vector, other.offset, length);
+            }
+            else{
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
             }
         }
+        finally{
+            writeUnlock();
+            other.readUnlock();
+        }
+    }
+
+    public void negate() {
+        writeLock();
+        try{
+            VectorKernels.negate(vector, offset, length);
+        }
         finally{
             writeUnlock();
         }
@@ -110,12 +179,16 @@ public class SharedVector {
     public double dot(SharedVector other) {
         double result = 0;
         readLock();
-        other.readLock();
         try{
-            if(length() == other.length() && getOrientation().equals(other.orientation)){
-                for(int i = 0; i < length();i++){
-                    result += vector[i] * other.vector[i];
-                }
+            other.readLock();
+        }
+        catch(IllegalStateException e){
+            readUnlock(); // other was detached; do not keep this one locked
+            throw e;
+        }
+        try{
+            if(length == other.length && orientation == other.orientation){
+                result = VectorKernels.dot(vector, offset, other.vector, other.offset, length);
             }
             else{
                 throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
@@ -148,7 +221,7 @@ public class SharedVector {
                 matrixCols = matrix.get(0).length();
             }
 
-            if (this.vector.length != matrixRows) {
+            if (this.length != matrixRows) {
                 throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
             }
 
@@ -156,20 +229,45 @@ public class SharedVector {
 
             if(isCol){
                 for(int i = 0; i < matrixCols; i++){
-                    result[i] = dot(matrix.get(i));
+                    SharedVector column = matrix.get(i);
+                    column.readLock();
+                    try{
+                        result[i] = VectorKernels.dot(vector, offset, column.vector, column.offset, matrixRows);
+                    }
+                    finally{
+                        column.readUnlock();
+                    }
                 }
             }
             else{
-                for (int col = 0; col < matrixCols; col++) {
-                    double sum = 0;
-                    for (int row = 0; row < matrixRows; row++) {
-                        sum += this.vector[row] * matrix.get(row).get(col);
+                // Walk the matrix row by row so each row is locked once and read contiguously
+                for (int row = 0; row < matrixRows; row++) {
+                    double scale = this.vector[offset + row];
+                    SharedVector matrixRow = matrix.get(row);
+                    matrixRow.readLock();
+                    try{
+                        double[] source = matrixRow.vector;
+                        int base = matrixRow.offset;
+                        for (int col = 0; col < matrixCols; col++) {
+                            result[col] += scale * source[base + col];
+                        }
+                    }
+                    finally{
+                        matrixRow.readUnlock();
                     }
-                    result[col] = sum;
                 }
             }
 
-            this.vector = result;
+            if (matrixCols == this.length) {
+                // Same shape: write back into the slice so the owning matrix sees the result
+                System.arraycopy(result, 0, this.vector, this.offset, matrixCols);
+            }
+            else {
+                // The vector changes size and can no longer live inside its old slice
+                this.vector = result;
+                this.offset = 0;
+                this.length = matrixCols;
+            }
         }
         finally{
             writeUnlock();
@@ -0,0 +1,330 @@
+package memory;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable sparse matrix in compressed form: CSR (rows compressed) or CSC (columns compressed).
+ * Only the non-zero entries are stored, as {@code pointers} into {@code indices}/{@code values}
+ * for every row (CSR) or column (CSC). Transposing swaps CSR and CSC over the same arrays, so
+ * {@link #transposed()} is O(1) like its dense counterpart.
+ * <p>
+ * Entries that are not stored are +0.0. A -0.0 is stored like any other value, so results keep the
+ * zero signs dense arithmetic would give them.
+ */
+public final class SparseMatrix {
+
+    /**
+     * Matrices with at most this fraction of non-zero entries are worth keeping sparse.
+     */
+    public static final double DENSITY_THRESHOLD = 0.10;
+
+    private final int rows;
+    private final int cols;
+    private final boolean rowCompressed; // CSR if true, CSC otherwise
+    private final int[] pointers; // one more than the compressed dimension
+    private final int[] indices; // column (CSR) or row (CSC) of every stored entry
+    private final double[] values;
+
+    SparseMatrix(int rows, int cols, boolean rowCompressed, int[] pointers, int[] indices, double[] values) {
+        this.rows = rows;
+        this.cols = cols;
+        this.rowCompressed = rowCompressed;
+        this.pointers = pointers;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Whether a value has to be stored explicitly: anything but +0.0, which is what missing entries are.
+     */
+    public static boolean needsStoring(double value) {
+        return Double.doubleToRawLongBits(value) != 0L;
+    }
+
+    /**
+     * Builds a CSR matrix from a dense row-major array, keeping only the entries that are not +0.0.
+     */
+    public static SparseMatrix fromRowMajor(double[] storage, int rows, int cols) {
+        if (storage.length != rows * cols) {
+            throw new IllegalArgumentException("Storage of length " + storage.length + " cannot hold a " + rows + "x" + cols + " matrix");
+        }
+        int nonZeros = 0;
+        for (double value : storage) {
+            if (needsStoring(value)) {
+                nonZeros++;
+            }
+        }
+        int[] pointers = new int[rows + 1];
+        int[] indices = new int[nonZeros];
+        double[] values = new double[nonZeros];
+        int n = 0;
+        for (int i = 0; i < rows; i++) {
+            int base = i * cols;
+            for (int j = 0; j < cols; j++) {
+                double value = storage[base + j];
+                if (needsStoring(value)) {
+                    indices[n] = j;
+                    values[n++] = value;
+                }
+            }
+            pointers[i + 1] = n;
+        }
+        return new SparseMatrix(rows, cols, true, pointers, indices, values);
+    }
+
+    /**
+     * Builds a CSR matrix from (row, column, value) triplets in any order; repeated positions are summed.
+     * The arrays hold {@code count} entries each.
+     */
+    public static SparseMatrix fromTriplets(int rows, int cols, int[] rowIndices, int[] colIndices, double[] entries, int count) {
+        for (int n = 0; n < count; n++) {
+            if (rowIndices[n] < 0 || rowIndices[n] >= rows || colIndices[n] < 0 || colIndices[n] >= cols) {
+                throw new IllegalArgumentException("Entry (" + rowIndices[n] + ", " + colIndices[n] + ") is outside a " + rows + "x" + cols + " matrix");
+            }
+        }
+        // Two stable counting sorts, by column and then by row, leave every row's columns in order
+        int[] byColumn = countingOrder(colIndices, count, cols, null);
+        int[] order = countingOrder(rowIndices, count, rows, byColumn);
+
+        int[] pointers = new int[rows + 1];
+        int[] indices = new int[count];
+        double[] values = new double[count];
+        int n = 0;
+        int lastRow = -1;
+        int lastCol = -1;
+        for (int k = 0; k < count; k++) {
+            int e = order[k];
+            int row = rowIndices[e];
+            int col = colIndices[e];
+            if (row == lastRow && col == lastCol) {
+                values[n - 1] += entries[e];
+                continue;
+            }
+            indices[n] = col;
+            values[n++] = entries[e];
+            pointers[row + 1]++;
+            lastRow = row;
+            lastCol = col;
+        }
+        for (int i = 0; i < rows; i++) {
+            pointers[i + 1] += pointers[i];
+        }
+        return new SparseMatrix(rows, cols, true, pointers, Arrays.copyOf(indices, n), Arrays.copyOf(values, n));
+    }
+
+    // Entry numbers sorted by key (stable), visiting them in the order given by `within` if set
+    private static int[] countingOrder(int[] keys, int count, int range, int[] within) {
+        int[] start = new int[range + 1];
+        for (int n = 0; n < count; n++) {
+            start[keys[n] + 1]++;
+        }
+        for (int k = 0; k < range; k++) {
+            start[k + 1] += start[k];
+        }
+        int[] order = new int[count];
+        for (int n = 0; n < count; n++) {
+            int e = within == null ? n : within[n];
+            order[start[keys[e]]++] = e;
+        }
+        return order;
+    }
+
+    /**
+     * Whether entries missing from every term of a linear combination come out +0.0, so the result can
+     * stay sparse. They are -0.0 when every coefficient is negative, as in a negation.
+     */
+    public static boolean combinationStaysSparse(double[] coefficients) {
+        for (double coefficient : coefficients) {
+            if (!isNegative(coefficient)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Sign bit set, so coefficient * +0.0 is -0.0
+    private static boolean isNegative(double coefficient) {
+        return Double.doubleToRawLongBits(coefficient) < 0;
+    }
+
+    /**
+     * sum(coefficients[t] * terms[t]) as a CSR matrix. Every term must have the same shape, and
+     * {@link #combinationStaysSparse} must hold for the coefficients.
+     */
+    public static SparseMatrix linearCombination(List<SparseMatrix> terms, double[] coefficients) {
+        if (!combinationStaysSparse(coefficients)) {
+            throw new IllegalArgumentException("Missing entries of this combination are -0.0; compute it dense");
+        }
+        int nonNegativeTerms = 0;
+        for (double coefficient : coefficients) {
+            if (!isNegative(coefficient)) {
+                nonNegativeTerms++;
+            }
+        }
+        int rows = terms.get(0).rows;
+        int cols = terms.get(0).cols;
+        SparseMatrix[] csr = new SparseMatrix[terms.size()];
+        int capacity = 0;
+        for (int t = 0; t < csr.length; t++) {
+            SparseMatrix term = terms.get(t);
+            if (term.rows != rows || term.cols != cols) {
+                throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+            }
+            csr[t] = term.toRowCompressed();
+            capacity += term.nonZeros();
+        }
+        int[] pointers = new int[rows + 1];
+        int[] indices = new int[capacity];
+        double[] values = new double[capacity];
+        double[] accumulator = new double[cols];
+        int[] touchedAt = new int[cols];
+        int[] nonNegativeStored = new int[cols]; // terms with a non-negative coefficient storing the column
+        Arrays.fill(touchedAt, -1);
+        int n = 0;
+        for (int i = 0; i < rows; i++) {
+            int rowStart = n;
+            for (int t = 0; t < csr.length; t++) {
+                SparseMatrix term = csr[t];
+                double coefficient = coefficients[t];
+                for (int p = term.pointers[i]; p < term.pointers[i + 1]; p++) {
+                    int j = term.indices[p];
+                    if (touchedAt[j] != i) {
+                        touchedAt[j] = i;
+                        accumulator[j] = coefficient * term.values[p];
+                        nonNegativeStored[j] = 0;
+                        indices[n++] = j;
+                    }
+                    else {
+                        accumulator[j] += coefficient * term.values[p];
+                    }
+                    if (!isNegative(coefficient)) {
+                        nonNegativeStored[j]++;
+                    }
+                }
+            }
+            Arrays.sort(indices, rowStart, n);
+            int kept = rowStart;
+            for (int p = rowStart; p < n; p++) {
+                double value = accumulator[indices[p]];
+                // A -0.0 sum only stays -0.0 if no missing entry adds a +0.0 to it
+                if (value != 0 || (needsStoring(value) && nonNegativeStored[indices[p]] == nonNegativeTerms)) {
+                    indices[kept] = indices[p];
+                    values[kept++] = value;
+                }
+            }
+            n = kept;
+            pointers[i + 1] = n;
+        }
+        return new SparseMatrix(rows, cols, true, pointers, Arrays.copyOf(indices, n), Arrays.copyOf(values, n));
+    }
+
+    /**
+     * The transpose over the same arrays: a CSR matrix becomes the CSC form of its transpose and vice versa.
+     */
+    public SparseMatrix transposed() {
+        return new SparseMatrix(cols, rows, !rowCompressed, pointers, indices, values);
+    }
+
+    /**
+     * This matrix in CSR form: itself if it already is, otherwise a converted copy (O(non-zeros)).
+     */
+    public SparseMatrix toRowCompressed() {
+        if (rowCompressed) {
+            return this;
+        }
+        int nonZeros = nonZeros();
+        int[] rowPointers = new int[rows + 1];
+        for (int p = 0; p < nonZeros; p++) {
+            rowPointers[indices[p] + 1]++;
+        }
+        for (int i = 0; i < rows; i++) {
+            rowPointers[i + 1] += rowPointers[i];
+        }
+        int[] next = Arrays.copyOf(rowPointers, rows);
+        int[] colIndices = new int[nonZeros];
+        double[] rowValues = new double[nonZeros];
+        for (int j = 0; j < cols; j++) {
+            for (int p = pointers[j]; p < pointers[j + 1]; p++) {
+                int slot = next[indices[p]]++;
+                colIndices[slot] = j;
+                rowValues[slot] = values[p];
+            }
+        }
+        return new SparseMatrix(rows, cols, true, rowPointers, colIndices, rowValues);
+    }
+
+    /**
+     * Expands into a dense row-major SharedMatrix.
+     */
+    public SharedMatrix toDense() {
+        double[] storage = new double[rows * cols];
+        int major = rowCompressed ? rows : cols;
+        for (int a = 0; a < major; a++) {
+            for (int p = pointers[a]; p < pointers[a + 1]; p++) {
+                int i = rowCompressed ? a : indices[p];
+                int j = rowCompressed ? indices[p] : a;
+                storage[i * cols + j] = values[p];
+            }
+        }
+        return new SharedMatrix(storage, rows, cols);
+    }
+
+    /**
+     * Element (row, col), found by binary search in its row (CSR) or column (CSC).
+     */
+    public double get(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            throw new IndexOutOfBoundsException("(" + row + ", " + col + ") is outside a " + rows + "x" + cols + " matrix");
+        }
+        int major = rowCompressed ? row : col;
+        int minor = rowCompressed ? col : row;
+        int p = Arrays.binarySearch(indices, pointers[major], pointers[major + 1], minor);
+        return p >= 0 ? values[p] : 0;
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public int columnCount() {
+        return cols;
+    }
+
+    public int nonZeros() {
+        return pointers[rowCompressed ? rows : cols];
+    }
+
+    /**
+     * True if no stored entry is infinite or NaN.
+     */
+    public boolean isFinite() {
+        for (int p = 0; p < nonZeros(); p++) {
+            if (!Double.isFinite(values[p])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public double density() {
+        long size = (long) rows * cols;
+        return size == 0 ? 0 : (double) nonZeros() / size;
+    }
+
+    public boolean isRowCompressed() {
+        return rowCompressed;
+    }
+
+    int[] pointers() {
+        return pointers;
+    }
+
+    int[] indices() {
+        return indices;
+    }
+
+    double[] values() {
+        return values;
+    }
+}
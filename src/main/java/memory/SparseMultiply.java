@@ -0,0 +1,279 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matrix product where at least one operand is sparse. Work is split into tasks by result rows:
+ * <ul>
+ *   <li>sparse x dense (SpMM): each stored entry (i, k) adds a scaled row k of the dense operand to row i;</li>
+ *   <li>dense x sparse: each non-zero (i, k) of the dense operand adds a scaled sparse row k to row i;</li>
+ *   <li>sparse x sparse (SpGEMM): Gustavson's row-by-row algorithm, with the result kept sparse.</li>
+ * </ul>
+ * Sparse operands are used in CSR form and dense operands row-major, converting once up front if needed.
+ * Products with missing entries are skipped, so operands must be finite for the result to match a dense
+ * product, where 0 * Inf and 0 * NaN give NaN.
+ */
+public final class SparseMultiply {
+
+    private final SparseMatrix sparseLeft;
+    private final SparseMatrix sparseRight;
+    private final SharedMatrix denseLeft;
+    private final SharedMatrix denseRight;
+    private final int rows;
+    private final int inner;
+    private final int cols;
+    private final double[] resultData; // row-major dense result, null for sparse x sparse
+    private final SharedMatrix result;
+    private RowBlock[] blocks; // per-task pieces of a sparse result, in row order
+
+    // The rows of a sparse result computed by one task
+    private static final class RowBlock {
+        int from;
+        int[] rowLengths;
+        int[] indices;
+        double[] values;
+        int size;
+    }
+
+    public SparseMultiply(SparseMatrix left, SharedMatrix right) {
+        this(left, null, null, right);
+    }
+
+    public SparseMultiply(SharedMatrix left, SparseMatrix right) {
+        this(null, left, right, null);
+    }
+
+    public SparseMultiply(SparseMatrix left, SparseMatrix right) {
+        this(left, null, right, null);
+    }
+
+    private SparseMultiply(SparseMatrix sparseLeft, SharedMatrix denseLeft, SparseMatrix sparseRight, SharedMatrix denseRight) {
+        this.rows = sparseLeft != null ? sparseLeft.rowCount() : denseLeft.rowCount();
+        this.inner = sparseLeft != null ? sparseLeft.columnCount() : denseLeft.columnCount();
+        int rightRows = sparseRight != null ? sparseRight.rowCount() : denseRight.rowCount();
+        this.cols = sparseRight != null ? sparseRight.columnCount() : denseRight.columnCount();
+        if (inner != rightRows) {
+            throw new IllegalArgumentException("Illegal operation: dimensions mismatch");
+        }
+        this.sparseLeft = sparseLeft == null ? null : sparseLeft.toRowCompressed();
+        this.sparseRight = sparseRight == null ? null : sparseRight.toRowCompressed();
+        this.denseLeft = denseLeft == null ? null : denseLeft.withOrientation(VectorOrientation.ROW_MAJOR);
+        this.denseRight = denseRight == null ? null : denseRight.withOrientation(VectorOrientation.ROW_MAJOR);
+        if (isSparseResult()) {
+            this.resultData = null;
+            this.result = null;
+        }
+        else {
+            this.resultData = new double[rows * cols];
+            this.result = new SharedMatrix(resultData, rows, cols);
+        }
+    }
+
+    public boolean isSparseResult() {
+        return sparseLeft != null && sparseRight != null;
+    }
+
+    /**
+     * The dense result; filled in once every task has run.
+     */
+    public SharedMatrix getResult() {
+        if (result == null) {
+            throw new IllegalStateException("The product of two sparse matrices is sparse");
+        }
+        return result;
+    }
+
+    /**
+     * The sparse result of a sparse x sparse product, assembled from the tasks' pieces.
+     * Call only after every task has run.
+     */
+    public SparseMatrix getSparseResult() {
+        if (!isSparseResult()) {
+            throw new IllegalStateException("The product has a dense result");
+        }
+        int[] pointers = new int[rows + 1];
+        int total = 0;
+        for (RowBlock block : blocks) {
+            for (int r = 0; r < block.rowLengths.length; r++) {
+                total += block.rowLengths[r];
+                pointers[block.from + r + 1] = total;
+            }
+        }
+        int[] indices = new int[total];
+        double[] values = new double[total];
+        for (RowBlock block : blocks) {
+            int start = pointers[block.from];
+            System.arraycopy(block.indices, 0, indices, start, block.size);
+            System.arraycopy(block.values, 0, values, start, block.size);
+        }
+        return new SparseMatrix(rows, cols, true, pointers, indices, values);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Estimated multiply-adds per result row, for sizing tasks.
+     */
+    public long getCostPerRow() {
+        long leftPerRow = sparseLeft != null ? sparseLeft.nonZeros() / Math.max(1, rows) + 1 : inner;
+        long rightPerRow = sparseRight != null ? sparseRight.nonZeros() / Math.max(1, inner) + 1 : cols;
+        return Math.max(1, leftPerRow * rightPerRow);
+    }
+
+    /**
+     * One task per {@code rowsPerTask} result rows.
+     */
+    public List<Runnable> createRowTasks(int rowsPerTask) {
+        List<Runnable> tasks = new ArrayList<>();
+        int chunk = Math.max(1, rowsPerTask);
+        blocks = new RowBlock[(rows + chunk - 1) / chunk];
+        for (int start = 0, t = 0; start < rows; start += chunk, t++) {
+            final int from = start;
+            final int to = Math.min(rows, start + chunk);
+            final int index = t;
+            if (isSparseResult()) {
+                tasks.add(() -> blocks[index] = sparseRows(from, to));
+            }
+            else if (sparseLeft != null) {
+                tasks.add(() -> sparseTimesDense(from, to));
+            }
+            else {
+                tasks.add(() -> denseTimesSparse(from, to));
+            }
+        }
+        return tasks;
+    }
+
+    private void sparseTimesDense(int from, int to) {
+        int[] pointers = sparseLeft.pointers();
+        int[] indices = sparseLeft.indices();
+        double[] values = sparseLeft.values();
+        SharedVector[] rightRows = lockRows(denseRight, 0, inner);
+        try{
+            for (int i = from; i < to; i++) {
+                int target = i * cols;
+                for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                    SharedVector row = rightRows[indices[p]];
+                    double[] source = row.array();
+                    int base = row.offset();
+                    double a = values[p];
+                    for (int j = 0; j < cols; j++) {
+                        resultData[target + j] += a * source[base + j];
+                    }
+                }
+            }
+        }
+        finally{
+            unlockRows(rightRows);
+        }
+    }
+
+    private void denseTimesSparse(int from, int to) {
+        int[] pointers = sparseRight.pointers();
+        int[] indices = sparseRight.indices();
+        double[] values = sparseRight.values();
+        SharedVector[] leftRows = lockRows(denseLeft, from, to);
+        try{
+            for (int i = from; i < to; i++) {
+                SharedVector row = leftRows[i - from];
+                double[] source = row.array();
+                int base = row.offset();
+                int target = i * cols;
+                for (int k = 0; k < inner; k++) {
+                    double a = source[base + k];
+                    if (a == 0) {
+                        continue;
+                    }
+                    for (int p = pointers[k]; p < pointers[k + 1]; p++) {
+                        resultData[target + indices[p]] += a * values[p];
+                    }
+                }
+            }
+        }
+        finally{
+            unlockRows(leftRows);
+        }
+    }
+
+    // Gustavson: accumulate each result row in a dense scratch row, remembering which columns were touched
+    private RowBlock sparseRows(int from, int to) {
+        int[] leftPointers = sparseLeft.pointers();
+        int[] leftIndices = sparseLeft.indices();
+        double[] leftValues = sparseLeft.values();
+        int[] rightPointers = sparseRight.pointers();
+        int[] rightIndices = sparseRight.indices();
+        double[] rightValues = sparseRight.values();
+
+        RowBlock block = new RowBlock();
+        block.from = from;
+        block.rowLengths = new int[to - from];
+        block.indices = new int[16];
+        block.values = new double[16];
+        double[] accumulator = new double[cols];
+        int[] touchedAt = new int[cols];
+        Arrays.fill(touchedAt, -1);
+        int[] touched = new int[cols];
+        for (int i = from; i < to; i++) {
+            int count = 0;
+            for (int p = leftPointers[i]; p < leftPointers[i + 1]; p++) {
+                int k = leftIndices[p];
+                double a = leftValues[p];
+                for (int q = rightPointers[k]; q < rightPointers[k + 1]; q++) {
+                    int j = rightIndices[q];
+                    if (touchedAt[j] != i) {
+                        touchedAt[j] = i;
+                        accumulator[j] = 0;
+                        touched[count++] = j;
+                    }
+                    accumulator[j] += a * rightValues[q];
+                }
+            }
+            Arrays.sort(touched, 0, count);
+            if (block.size + count > block.indices.length) {
+                int capacity = Math.max(block.indices.length * 2, block.size + count);
+                block.indices = Arrays.copyOf(block.indices, capacity);
+                block.values = Arrays.copyOf(block.values, capacity);
+            }
+            int kept = 0;
+            for (int c = 0; c < count; c++) {
+                double value = accumulator[touched[c]];
+                if (value != 0) {
+                    block.indices[block.size + kept] = touched[c];
+                    block.values[block.size + kept] = value;
+                    kept++;
+                }
+            }
+            block.size += kept;
+            block.rowLengths[i - from] = kept;
+        }
+        return block;
+    }
+
+    private static SharedVector[] lockRows(SharedMatrix matrix, int from, int to) {
+        SharedVector[] rows = new SharedVector[to - from];
+        int locked = 0;
+        try{
+            for (; locked < rows.length; locked++) {
+                rows[locked] = matrix.get(from + locked);
+                rows[locked].readLock();
+            }
+        }
+        catch(RuntimeException e){
+            for (int r = 0; r < locked; r++) {
+                rows[r].readUnlock();
+            }
+            throw e;
+        }
+        return rows;
+    }
+
+    private static void unlockRows(SharedVector[] rows) {
+        for (SharedVector row : rows) {
+            row.readUnlock();
+        }
+    }
+}
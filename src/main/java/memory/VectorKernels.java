@@ -0,0 +1,87 @@
+package memory;
+
+/**
+ * Tight loops over raw arrays, used by the vector operations once their locks are held.
+ * None of these methods lock or check orientation; callers are expected to have done both.
+ * <p>
+ * The loops themselves live in a {@link KernelImplementation} chosen once, when this class is
+ * loaded: the Vector API version if it was compiled in (the {@code simd} build profile), the
+ * {@code jdk.incubator.vector} module is present at run time ({@code --add-modules jdk.incubator.vector})
+ * and the CPU has wide enough vectors, and the scalar loops otherwise. Setting the system property
+ * {@code lae.kernels=scalar} forces the scalar loops.
+ */
+public final class VectorKernels {
+
+    private static final String SIMD_CLASS = "memory.simd.VectorApiKernels";
+
+    private static final KernelImplementation IMPL = select();
+
+    /**
+     * Columns of the GEMM register block of the selected implementation.
+     */
+    static final int GEMM_COLUMNS = IMPL.gemmColumns();
+
+    private VectorKernels() {}
+
+    private static KernelImplementation select() {
+        if (!"scalar".equals(System.getProperty("lae.kernels"))) {
+            try{
+                return (KernelImplementation) Class.forName(SIMD_CLASS).getDeclaredConstructor().newInstance();
+            }
+            catch(ReflectiveOperationException | LinkageError | UnsupportedOperationException e){
+                // Not compiled in, module not added, or no usable vector shape: use the scalar loops
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /**
+     * Name of the implementation in use.
+     */
+    public static String implementationName() {
+        return IMPL.name();
+    }
+
+    /**
+     * dst[dstOffset + i] += src[srcOffset + i] for i in [0, length).
+     */
+    public static void add(double[] dst, int dstOffset, double[] src, int srcOffset, int length) {
+        IMPL.add(dst, dstOffset, src, srcOffset, length);
+    }
+
+    /**
+     * dst[dstOffset + i] -= src[srcOffset + i] for i in [0, length).
+     */
+    public static void subtract(double[] dst, int dstOffset, double[] src, int srcOffset, int length) {
+        IMPL.subtract(dst, dstOffset, src, srcOffset, length);
+    }
+
+    /**
+     * data[offset + i] = -data[offset + i] for i in [0, length).
+     */
+    public static void negate(double[] data, int offset, int length) {
+        IMPL.negate(data, offset, length);
+    }
+
+    public static double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        return IMPL.dot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * dst[dstOffset + i] = alpha * src[srcOffset + i] for i in [0, length).
+     */
+    public static void scale(double alpha, double[] src, int srcOffset, double[] dst, int dstOffset, int length) {
+        IMPL.scale(alpha, src, srcOffset, dst, dstOffset, length);
+    }
+
+    /**
+     * dst[dstOffset + i] += alpha * src[srcOffset + i] for i in [0, length).
+     */
+    public static void axpy(double alpha, double[] src, int srcOffset, double[] dst, int dstOffset, int length) {
+        IMPL.axpy(alpha, src, srcOffset, dst, dstOffset, length);
+    }
+
+    static void gemmBlock(double[] a, int aOffset, double[] b, int bOffset, int kc, double[] c, int cOffset, int ldc) {
+        IMPL.gemmBlock(a, aOffset, b, bOffset, kc, c, cOffset, ldc);
+    }
+}
@@ -0,0 +1,139 @@
+package memory.simd;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import memory.KernelImplementation;
+
+/**
+ * Kernels on the JDK Vector API, using the widest double vector the CPU supports
+ * (4 lanes with AVX2, 8 with AVX-512). Only compiled with the {@code simd} build profile.
+ */
+public final class VectorApiKernels implements KernelImplementation {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    /**
+     * @throws UnsupportedOperationException if vectors hold fewer than 4 doubles, where the scalar loops do as well
+     */
+    public VectorApiKernels() {
+        if (LANES < 4) {
+            throw new UnsupportedOperationException("Preferred vector holds only " + LANES + " doubles");
+        }
+    }
+
+    @Override
+    public String name() {
+        return "simd (" + SPECIES.vectorBitSize() + "-bit, " + LANES + " doubles)";
+    }
+
+    @Override
+    public void add(double[] dst, int dstOffset, double[] src, int srcOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector d = DoubleVector.fromArray(SPECIES, dst, dstOffset + i);
+            d.add(DoubleVector.fromArray(SPECIES, src, srcOffset + i)).intoArray(dst, dstOffset + i);
+        }
+        for (; i < length; i++) {
+            dst[dstOffset + i] += src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public void subtract(double[] dst, int dstOffset, double[] src, int srcOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector d = DoubleVector.fromArray(SPECIES, dst, dstOffset + i);
+            d.sub(DoubleVector.fromArray(SPECIES, src, srcOffset + i)).intoArray(dst, dstOffset + i);
+        }
+        for (; i < length; i++) {
+            dst[dstOffset + i] -= src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public void negate(double[] data, int offset, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, data, offset + i).neg().intoArray(data, offset + i);
+        }
+        for (; i < length; i++) {
+            data[offset + i] = -data[offset + i];
+        }
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            sum = x.fma(DoubleVector.fromArray(SPECIES, b, bOffset + i), sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    @Override
+    public void scale(double alpha, double[] src, int srcOffset, double[] dst, int dstOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector.fromArray(SPECIES, src, srcOffset + i).mul(alpha).intoArray(dst, dstOffset + i);
+        }
+        for (; i < length; i++) {
+            dst[dstOffset + i] = alpha * src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] src, int srcOffset, double[] dst, int dstOffset, int length) {
+        int bound = SPECIES.loopBound(length);
+        DoubleVector a = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, src, srcOffset + i);
+            x.fma(a, DoubleVector.fromArray(SPECIES, dst, dstOffset + i)).intoArray(dst, dstOffset + i);
+        }
+        for (; i < length; i++) {
+            dst[dstOffset + i] += alpha * src[srcOffset + i];
+        }
+    }
+
+    @Override
+    public int gemmColumns() {
+        return LANES;
+    }
+
+    // 4 rows of one vector each: every step broadcasts 4 values of a and does 4 fused multiply-adds
+    @Override
+    public void gemmBlock(double[] a, int aOffset, double[] b, int bOffset, int kc, double[] c, int cOffset, int ldc) {
+        DoubleVector c0 = DoubleVector.zero(SPECIES);
+        DoubleVector c1 = DoubleVector.zero(SPECIES);
+        DoubleVector c2 = DoubleVector.zero(SPECIES);
+        DoubleVector c3 = DoubleVector.zero(SPECIES);
+        for (int p = 0; p < kc; p++) {
+            DoubleVector bp = DoubleVector.fromArray(SPECIES, b, bOffset);
+            c0 = bp.fma(DoubleVector.broadcast(SPECIES, a[aOffset]), c0);
+            c1 = bp.fma(DoubleVector.broadcast(SPECIES, a[aOffset + 1]), c1);
+            c2 = bp.fma(DoubleVector.broadcast(SPECIES, a[aOffset + 2]), c2);
+            c3 = bp.fma(DoubleVector.broadcast(SPECIES, a[aOffset + 3]), c3);
+            aOffset += 4;
+            bOffset += LANES;
+        }
+        int r0 = cOffset, r1 = r0 + ldc, r2 = r1 + ldc, r3 = r2 + ldc;
+        DoubleVector.fromArray(SPECIES, c, r0).add(c0).intoArray(c, r0);
+        DoubleVector.fromArray(SPECIES, c, r1).add(c1).intoArray(c, r1);
+        DoubleVector.fromArray(SPECIES, c, r2).add(c2).intoArray(c, r2);
+        DoubleVector.fromArray(SPECIES, c, r3).add(c3).intoArray(c, r3);
+    }
+}
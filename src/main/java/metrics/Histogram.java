@@ -0,0 +1,99 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds. Buckets are log-linear: every power of two
+ * is split into four, so a recorded value is known to within 25% and recording is a couple of
+ * bit operations and one atomic increment.
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKETS = 4; // per power of two
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong(0);
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        long previous;
+        while (value > (previous = max.get()) && !max.compareAndSet(previous, value)) {
+            // retry
+        }
+    }
+
+    // Values below 4 get a bucket each; above, the exponent picks the octave and the next two bits the quarter
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int quarter = (int) ((value >>> (exponent - 2)) & (SUB_BUCKETS - 1));
+        return exponent * SUB_BUCKETS + quarter;
+    }
+
+    // Smallest value above bucket i
+    static long upperBound(int i) {
+        if (i < SUB_BUCKETS) {
+            return i + 1;
+        }
+        int exponent = i / SUB_BUCKETS;
+        long quarter = i % SUB_BUCKETS;
+        return (SUB_BUCKETS + quarter + 1) << (exponent - 2);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding the q-th quantile (0 &lt; q &lt;= 1), or 0 if nothing was recorded.
+     */
+    public long quantile(double q) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Number of recorded values below 2^exponent nanoseconds, for exporting cumulative buckets.
+     */
+    public long countBelowPowerOfTwo(int exponent) {
+        long seen = 0;
+        for (int i = 0; i < BUCKETS && upperBound(i) <= (1L << exponent); i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+}
@@ -0,0 +1,413 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Metrics of one engine and its workers: how long tasks waited to start, how busy every worker was
+ * over time, what each node cost (wall and CPU time, allocated bytes, estimated FLOPs) and how long
+ * inputs took to parse and results to write. With {@link #enableTrace} the same spans are also kept
+ * as a timeline for {@link #writeTrace}.
+ * <p>
+ * Nothing measures anything until a Metrics is handed to the engine: with none set, the engine and
+ * executor only check a null field. Use one instance per engine, since workers are told apart by index.
+ */
+public class Metrics {
+
+    public static final long DEFAULT_WINDOW_NANOS = 100_000_000L; // utilization window: 100 ms
+    public static final int DEFAULT_WINDOWS = 600; // windows kept: the last minute
+    public static final int DEFAULT_TRACE_EVENTS = 1_000_000;
+    static final int RECENT_NODES = 256; // per-node records kept for the JSON export
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    static final boolean CPU_TIME_SUPPORTED = enableCpuTime();
+    static final boolean ALLOCATION_SUPPORTED = enableAllocation();
+
+    private final Histogram queueWait = new Histogram(); // submit() until a worker starts the task
+    private final Histogram handoffLatency = new Histogram(); // task handed to a worker until it starts
+    private final Histogram taskDuration = new Histogram();
+    private final Histogram jobDuration = new Histogram();
+    private final Histogram parseDuration = new Histogram();
+    private final Histogram writeDuration = new Histogram();
+    private final Map<String, OperatorTotals> operators = new ConcurrentHashMap<>();
+    private final ArrayDeque<NodeMeter> recentNodes = new ArrayDeque<>(); // guarded by itself
+    private final AtomicLong nextJob = new AtomicLong(0);
+    private final AtomicLong nextNode = new AtomicLong(0);
+    private final long windowNanos;
+    private final int windows;
+    private volatile UtilizationTimeline timeline = null; // sized once the executor says how many workers it has
+    private volatile TraceRecorder trace = null;
+
+    // Totals over every node of one operator
+    private static final class OperatorTotals {
+        final LongAdder nodes = new LongAdder();
+        final LongAdder tasks = new LongAdder();
+        final LongAdder wallNanos = new LongAdder();
+        final LongAdder cpuNanos = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+        final LongAdder flops = new LongAdder();
+    }
+
+    public Metrics() {
+        this(DEFAULT_WINDOW_NANOS, DEFAULT_WINDOWS);
+    }
+
+    public Metrics(long windowNanos, int windows) {
+        if (windowNanos <= 0 || windows <= 0) {
+            throw new IllegalArgumentException("Utilization windows must have a positive length and count");
+        }
+        this.windowNanos = windowNanos;
+        this.windows = windows;
+    }
+
+    /**
+     * Keeps up to {@code maxEvents} spans for a Chrome trace from now on.
+     */
+    public void enableTrace(int maxEvents) {
+        trace = new TraceRecorder(maxEvents);
+    }
+
+    public TraceRecorder getTrace() {
+        return trace;
+    }
+
+    // Executor side
+
+    /**
+     * Called by the executor the metrics are attached to, with its number of workers.
+     */
+    public synchronized void registerWorkers(int workers) {
+        if (timeline == null || timeline.getWorkers() < workers) {
+            timeline = new UtilizationTimeline(workers, windowNanos, windows);
+        }
+    }
+
+    public void recordDispatch(long queueWaitNanos, long handoffNanos) {
+        queueWait.record(queueWaitNanos);
+        handoffLatency.record(handoffNanos);
+    }
+
+    /**
+     * Records a task run by {@code worker}, or by a submitting thread if it is -1. Must be called from that thread.
+     */
+    public void recordTask(int worker, long start, long end) {
+        taskDuration.record(end - start);
+        UtilizationTimeline current = timeline;
+        if (current != null) {
+            current.addBusy(worker, start, end);
+        }
+    }
+
+    // Engine side
+
+    public long startJob() {
+        return nextJob.incrementAndGet();
+    }
+
+    public void recordJob(long job, long start, long end) {
+        jobDuration.record(end - start);
+        traceSpan("job", "job", start, end, "{\"job\":" + job + "}");
+    }
+
+    public void recordRound(long job, int nodes, int tasks, long start, long end) {
+        traceSpan("round", "round", start, end, "{\"job\":" + job + ",\"nodes\":" + nodes + ",\"tasks\":" + tasks + "}");
+    }
+
+    public NodeMeter startNode(long job, String operator, long flops) {
+        return new NodeMeter(this, job, nextNode.incrementAndGet(), operator, flops);
+    }
+
+    void recordNode(NodeMeter node) {
+        OperatorTotals totals = operators.computeIfAbsent(node.getOperator(), name -> new OperatorTotals());
+        totals.nodes.increment();
+        totals.tasks.add(node.getTasks());
+        totals.wallNanos.add(node.getWallNanos());
+        totals.cpuNanos.add(node.getCpuNanos());
+        totals.allocatedBytes.add(node.getAllocatedBytes());
+        totals.flops.add(node.getFlops());
+        synchronized (recentNodes) {
+            if (recentNodes.size() == RECENT_NODES) {
+                recentNodes.removeFirst();
+            }
+            recentNodes.addLast(node);
+        }
+    }
+
+    public void recordParse(long start, long end) {
+        parseDuration.record(end - start);
+        traceSpan("parse", "io", start, end, null);
+    }
+
+    public void recordWrite(long start, long end) {
+        writeDuration.record(end - start);
+        traceSpan("write", "io", start, end, null);
+    }
+
+    void traceSpan(String name, String category, long start, long end, String args) {
+        TraceRecorder current = trace;
+        if (current != null) {
+            current.span(name, category, start, end, args);
+        }
+    }
+
+    public Histogram getQueueWait() {
+        return queueWait;
+    }
+
+    public Histogram getHandoffLatency() {
+        return handoffLatency;
+    }
+
+    public Histogram getTaskDuration() {
+        return taskDuration;
+    }
+
+    public Histogram getJobDuration() {
+        return jobDuration;
+    }
+
+    public Histogram getParseDuration() {
+        return parseDuration;
+    }
+
+    public Histogram getWriteDuration() {
+        return writeDuration;
+    }
+
+    public UtilizationTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Estimated FLOPs of every node of {@code operator} so far.
+     */
+    public long getFlops(String operator) {
+        OperatorTotals totals = operators.get(operator);
+        return totals == null ? 0 : totals.flops.sum();
+    }
+
+    // Per-thread costs; -1 where the JVM cannot measure them
+
+    static long threadCpuNanos() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    static long threadAllocatedBytes() {
+        return ALLOCATION_SUPPORTED ? ((com.sun.management.ThreadMXBean) THREADS).getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    private static boolean enableCpuTime() {
+        try{
+            if (THREADS.isCurrentThreadCpuTimeSupported() && !THREADS.isThreadCpuTimeEnabled()) {
+                THREADS.setThreadCpuTimeEnabled(true);
+            }
+            return THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+        }
+        catch(UnsupportedOperationException | SecurityException e){
+            return false;
+        }
+    }
+
+    private static boolean enableAllocation() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        try{
+            if (threads.isThreadAllocatedMemorySupported() && !threads.isThreadAllocatedMemoryEnabled()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+            }
+            return threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled();
+        }
+        catch(UnsupportedOperationException | SecurityException e){
+            return false;
+        }
+    }
+
+    // Export
+
+    /**
+     * Writes the metrics to {@code path}: in the Prometheus text format if it ends in .prom, otherwise as JSON.
+     */
+    public void export(Path path) throws IOException {
+        String text = path.getFileName().toString().endsWith(".prom") ? toPrometheus() : toJson();
+        Files.writeString(path, text, StandardCharsets.UTF_8);
+    }
+
+    public void writeTrace(Path path) throws IOException {
+        TraceRecorder current = trace;
+        if (current == null) {
+            throw new IllegalStateException("Tracing was not enabled");
+        }
+        current.write(path);
+    }
+
+    private Map<String, Histogram> histograms() {
+        Map<String, Histogram> all = new LinkedHashMap<>();
+        all.put("queue_wait", queueWait);
+        all.put("handoff_latency", handoffLatency);
+        all.put("task_duration", taskDuration);
+        all.put("job_duration", jobDuration);
+        all.put("parse_duration", parseDuration);
+        all.put("write_duration", writeDuration);
+        return all;
+    }
+
+    public String toJson() {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator json = new JsonFactory().createGenerator(out)) {
+            json.useDefaultPrettyPrinter();
+            json.writeStartObject();
+            json.writeObjectFieldStart("histograms");
+            for (Map.Entry<String, Histogram> entry : histograms().entrySet()) {
+                Histogram h = entry.getValue();
+                json.writeObjectFieldStart(entry.getKey());
+                json.writeNumberField("count", h.getCount());
+                json.writeNumberField("sum_ns", h.getSum());
+                json.writeNumberField("max_ns", h.getMax());
+                json.writeNumberField("p50_ns", h.quantile(0.5));
+                json.writeNumberField("p90_ns", h.quantile(0.9));
+                json.writeNumberField("p99_ns", h.quantile(0.99));
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+
+            json.writeObjectFieldStart("operators");
+            for (Map.Entry<String, OperatorTotals> entry : new TreeMap<>(operators).entrySet()) {
+                OperatorTotals totals = entry.getValue();
+                json.writeObjectFieldStart(entry.getKey());
+                json.writeNumberField("nodes", totals.nodes.sum());
+                json.writeNumberField("tasks", totals.tasks.sum());
+                json.writeNumberField("wall_ns", totals.wallNanos.sum());
+                json.writeNumberField("cpu_ns", CPU_TIME_SUPPORTED ? totals.cpuNanos.sum() : -1);
+                json.writeNumberField("allocated_bytes", ALLOCATION_SUPPORTED ? totals.allocatedBytes.sum() : -1);
+                json.writeNumberField("flops", totals.flops.sum());
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+
+            json.writeArrayFieldStart("recent_nodes");
+            synchronized (recentNodes) {
+                for (NodeMeter node : recentNodes) {
+                    json.writeStartObject();
+                    json.writeNumberField("job", node.getJob());
+                    json.writeNumberField("node", node.getId());
+                    json.writeStringField("operator", node.getOperator());
+                    json.writeNumberField("tasks", node.getTasks());
+                    json.writeNumberField("wall_ns", node.getWallNanos());
+                    json.writeNumberField("cpu_ns", node.getCpuNanos());
+                    json.writeNumberField("allocated_bytes", node.getAllocatedBytes());
+                    json.writeNumberField("flops", node.getFlops());
+                    json.writeEndObject();
+                }
+            }
+            json.writeEndArray();
+
+            UtilizationTimeline current = timeline;
+            json.writeObjectFieldStart("workers");
+            json.writeNumberField("window_ms", windowNanos / 1_000_000.0);
+            json.writeArrayFieldStart("utilization");
+            if (current != null) {
+                long now = System.nanoTime();
+                for (int worker = 0; worker < current.getWorkers(); worker++) {
+                    json.writeStartObject();
+                    json.writeNumberField("worker", worker);
+                    json.writeNumberField("busy_ns", current.getBusyNanos(worker));
+                    json.writeArrayFieldStart("windows");
+                    for (double fraction : current.utilization(worker, now)) {
+                        json.writeNumber(Math.round(fraction * 1000) / 1000.0);
+                    }
+                    json.writeEndArray();
+                    json.writeEndObject();
+                }
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        catch(IOException e){
+            throw new IllegalStateException(e); // a StringWriter does not fail
+        }
+        return out.toString();
+    }
+
+    public String toPrometheus() {
+        StringWriter out = new StringWriter();
+        try{
+            for (Map.Entry<String, Histogram> entry : histograms().entrySet()) {
+                writeHistogram(out, "lae_" + entry.getKey() + "_seconds", entry.getValue());
+            }
+            Map<String, OperatorTotals> sorted = new TreeMap<>(operators);
+            writeOperatorCounter(out, "lae_nodes_total", "Nodes computed.", sorted, totals -> totals.nodes.sum(), false);
+            writeOperatorCounter(out, "lae_node_tasks_total", "Tasks run for nodes.", sorted, totals -> totals.tasks.sum(), false);
+            writeOperatorCounter(out, "lae_node_wall_seconds_total", "Wall time of nodes.", sorted, totals -> totals.wallNanos.sum(), true);
+            if (CPU_TIME_SUPPORTED) {
+                writeOperatorCounter(out, "lae_node_cpu_seconds_total", "CPU time of nodes over every thread.", sorted, totals -> totals.cpuNanos.sum(), true);
+            }
+            if (ALLOCATION_SUPPORTED) {
+                writeOperatorCounter(out, "lae_node_allocated_bytes_total", "Bytes allocated while computing nodes.", sorted, totals -> totals.allocatedBytes.sum(), false);
+            }
+            writeOperatorCounter(out, "lae_node_flops_total", "Estimated floating-point operations of nodes.", sorted, totals -> totals.flops.sum(), false);
+
+            UtilizationTimeline current = timeline;
+            if (current != null) {
+                out.write("# HELP lae_worker_busy_seconds_total Time each worker spent running tasks.\n");
+                out.write("# TYPE lae_worker_busy_seconds_total counter\n");
+                for (int worker = 0; worker < current.getWorkers(); worker++) {
+                    out.write("lae_worker_busy_seconds_total{worker=\"" + worker + "\"} " + seconds(current.getBusyNanos(worker)) + "\n");
+                }
+            }
+        }
+        catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private interface Field {
+        long of(OperatorTotals totals);
+    }
+
+    private static void writeOperatorCounter(Writer out, String name, String help, Map<String, OperatorTotals> operators,
+                                             Field field, boolean nanos) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " counter\n");
+        for (Map.Entry<String, OperatorTotals> entry : operators.entrySet()) {
+            long value = field.of(entry.getValue());
+            out.write(name + "{op=\"" + entry.getKey() + "\"} " + (nanos ? seconds(value) : Long.toString(value)) + "\n");
+        }
+    }
+
+    // Cumulative buckets at every power of two from about a microsecond to about two minutes
+    private static void writeHistogram(Writer out, String name, Histogram histogram) throws IOException {
+        out.write("# TYPE " + name + " histogram\n");
+        for (int exponent = 10; exponent <= 37; exponent++) {
+            out.write(name + "_bucket{le=\"" + seconds(1L << exponent) + "\"} " + histogram.countBelowPowerOfTwo(exponent) + "\n");
+        }
+        long count = histogram.getCount();
+        out.write(name + "_bucket{le=\"+Inf\"} " + count + "\n");
+        out.write(name + "_sum " + seconds(histogram.getSum()) + "\n");
+        out.write(name + "_count " + count + "\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9g", nanos / 1e9);
+    }
+}
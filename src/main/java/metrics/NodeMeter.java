@@ -0,0 +1,126 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What computing one node cost, gathered from the engine thread that loads and resolves it and from
+ * every worker that runs one of its tasks. Wall time is the engine's own time on the node plus the
+ * span from its first task starting to its last task ending; CPU time and allocated bytes are summed
+ * over all of those threads, and are -1 where the JVM cannot measure them.
+ */
+public final class NodeMeter {
+
+    private final Metrics metrics;
+    private final long job;
+    private final long id;
+    private final String operator;
+    private final long flops; // estimated floating-point operations
+    private final LongAdder engineNanos = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder tasks = new LongAdder();
+    private final AtomicLong firstTaskStart = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastTaskEnd = new AtomicLong(Long.MIN_VALUE);
+    private long enteredAt; // engine thread only
+    private long enteredCpu;
+    private long enteredAllocated;
+
+    NodeMeter(Metrics metrics, long job, long id, String operator, long flops) {
+        this.metrics = metrics;
+        this.job = job;
+        this.id = id;
+        this.operator = operator;
+        this.flops = flops;
+    }
+
+    /**
+     * Starts measuring work the engine thread does on the node itself, such as allocating its result.
+     */
+    public void enter() {
+        enteredCpu = Metrics.threadCpuNanos();
+        enteredAllocated = Metrics.threadAllocatedBytes();
+        enteredAt = System.nanoTime();
+    }
+
+    public void exit() {
+        engineNanos.add(System.nanoTime() - enteredAt);
+        addThreadCosts(enteredCpu, enteredAllocated);
+    }
+
+    /**
+     * Wraps one of the node's tasks so that running it is counted towards the node.
+     */
+    public Runnable measure(Runnable task) {
+        tasks.increment();
+        return () -> {
+            long cpu = Metrics.threadCpuNanos();
+            long allocated = Metrics.threadAllocatedBytes();
+            long start = System.nanoTime();
+            try{
+                task.run();
+            }
+            finally{
+                long end = System.nanoTime();
+                addThreadCosts(cpu, allocated);
+                firstTaskStart.accumulateAndGet(start, Math::min);
+                lastTaskEnd.accumulateAndGet(end, Math::max);
+                metrics.traceSpan(operator, "task", start, end, args());
+            }
+        };
+    }
+
+    private void addThreadCosts(long cpuBefore, long allocatedBefore) {
+        if (cpuBefore >= 0) {
+            cpuNanos.add(Metrics.threadCpuNanos() - cpuBefore);
+        }
+        if (allocatedBefore >= 0) {
+            allocatedBytes.add(Metrics.threadAllocatedBytes() - allocatedBefore);
+        }
+    }
+
+    /**
+     * Called once the node is resolved and every one of its tasks has finished.
+     */
+    public void finish() {
+        metrics.recordNode(this);
+    }
+
+    String args() {
+        return "{\"job\":" + job + ",\"node\":" + id + "}";
+    }
+
+    public long getJob() {
+        return job;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public long getFlops() {
+        return flops;
+    }
+
+    public long getTasks() {
+        return tasks.sum();
+    }
+
+    public long getWallNanos() {
+        long first = firstTaskStart.get();
+        long span = first == Long.MAX_VALUE ? 0 : lastTaskEnd.get() - first;
+        return engineNanos.sum() + span;
+    }
+
+    public long getCpuNanos() {
+        return Metrics.CPU_TIME_SUPPORTED ? cpuNanos.sum() : -1;
+    }
+
+    public long getAllocatedBytes() {
+        return Metrics.ALLOCATION_SUPPORTED ? allocatedBytes.sum() : -1;
+    }
+}
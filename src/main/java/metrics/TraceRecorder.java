@@ -0,0 +1,120 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Collects a timeline of spans (jobs, rounds, tasks, parsing, writing) and writes it in the Chrome
+ * trace event format, which chrome://tracing and Perfetto open directly. Every span is drawn on the
+ * thread that recorded it. At most {@code maxEvents} spans are kept; later ones are counted and dropped.
+ */
+public final class TraceRecorder {
+
+    private final long origin = System.nanoTime();
+    private final int maxEvents;
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+    private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+
+    // One complete ("X") event
+    private static final class Event {
+        final String name;
+        final String category;
+        final long thread;
+        final long start;
+        final long duration;
+        final String args; // a JSON object, or null
+
+        Event(String name, String category, long thread, long start, long duration, String args) {
+            this.name = name;
+            this.category = category;
+            this.thread = thread;
+            this.start = start;
+            this.duration = duration;
+            this.args = args;
+        }
+    }
+
+    public TraceRecorder(int maxEvents) {
+        if (maxEvents <= 0) {
+            throw new IllegalArgumentException("A trace must hold at least one event");
+        }
+        this.maxEvents = maxEvents;
+    }
+
+    /**
+     * Records a span of the current thread from {@code start} to {@code end} (System.nanoTime() values).
+     * {@code args} is shown with the span and must be a JSON object, or null.
+     */
+    public void span(String name, String category, long start, long end, String args) {
+        if (size.incrementAndGet() > maxEvents) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        Thread current = Thread.currentThread();
+        long thread = current.threadId();
+        threadNames.computeIfAbsent(thread, id -> current.getName());
+        events.add(new Event(name, category, thread, start, Math.max(0, end - start), args));
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public void write(Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path);
+             JsonGenerator json = new JsonFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("displayTimeUnit", "ms");
+            json.writeArrayFieldStart("traceEvents");
+            for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+                json.writeStartObject();
+                json.writeStringField("name", "thread_name");
+                json.writeStringField("ph", "M");
+                json.writeNumberField("pid", 1);
+                json.writeNumberField("tid", thread.getKey());
+                json.writeObjectFieldStart("args");
+                json.writeStringField("name", thread.getValue());
+                json.writeEndObject();
+                json.writeEndObject();
+            }
+            for (Event event : events) {
+                json.writeStartObject();
+                json.writeStringField("name", event.name);
+                json.writeStringField("cat", event.category);
+                json.writeStringField("ph", "X");
+                json.writeNumberField("pid", 1);
+                json.writeNumberField("tid", event.thread);
+                json.writeNumberField("ts", (event.start - origin) / 1000.0); // microseconds
+                json.writeNumberField("dur", event.duration / 1000.0);
+                if (event.args != null) {
+                    json.writeFieldName("args");
+                    json.writeRawValue(event.args);
+                }
+                json.writeEndObject();
+            }
+            json.writeEndArray();
+            json.writeObjectFieldStart("otherData");
+            json.writeNumberField("dropped", dropped.get());
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How busy each worker was over time, in fixed windows kept in a ring: the most recent
+ * {@code capacity} windows are available, older ones are overwritten.
+ * Each worker's row is only written by that worker, so recording needs no locking.
+ */
+public final class UtilizationTimeline {
+
+    private final long origin = System.nanoTime();
+    private final long windowNanos;
+    private final int capacity;
+    private final AtomicLongArray[] busy; // per worker: busy time in the window each slot holds
+    private final AtomicLongArray[] windows; // per worker: which window each slot holds
+    private final AtomicLongArray totals; // per worker: busy time since the timeline started
+
+    public UtilizationTimeline(int workers, long windowNanos, int capacity) {
+        if (windowNanos <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Windows must have a positive length and count");
+        }
+        this.windowNanos = windowNanos;
+        this.capacity = capacity;
+        busy = new AtomicLongArray[workers];
+        windows = new AtomicLongArray[workers];
+        for (int i = 0; i < workers; i++) {
+            busy[i] = new AtomicLongArray(capacity);
+            windows[i] = new AtomicLongArray(capacity);
+        }
+        totals = new AtomicLongArray(workers);
+    }
+
+    /**
+     * Records that {@code worker} was busy from {@code start} to {@code end} (System.nanoTime() values),
+     * split over the windows the interval spans. Must be called from the worker itself.
+     */
+    public void addBusy(int worker, long start, long end) {
+        if (worker < 0 || worker >= busy.length || end <= start) {
+            return;
+        }
+        totals.addAndGet(worker, end - start);
+        long from = Math.max(start, origin);
+        while (from < end) {
+            long window = (from - origin) / windowNanos;
+            long part = Math.min(end, origin + (window + 1) * windowNanos) - from;
+            int slot = (int) (window % capacity);
+            if (windows[worker].get(slot) != window) {
+                windows[worker].set(slot, window);
+                busy[worker].set(slot, part);
+            }
+            else {
+                busy[worker].addAndGet(slot, part);
+            }
+            from += part;
+        }
+    }
+
+    public int getWorkers() {
+        return busy.length;
+    }
+
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+
+    public long getBusyNanos(int worker) {
+        return totals.get(worker);
+    }
+
+    /**
+     * The fraction of each retained window that {@code worker} spent busy, oldest first, ending with the
+     * window that is current at {@code now}. Tasks still running are not counted yet.
+     */
+    public double[] utilization(int worker, long now) {
+        long current = Math.max(0, (now - origin) / windowNanos);
+        long first = Math.max(0, current - capacity + 1);
+        double[] fractions = new double[(int) (current - first + 1)];
+        for (long window = first; window <= current; window++) {
+            int slot = (int) (window % capacity);
+            if (windows[worker].get(slot) == window) {
+                fractions[(int) (window - first)] = Math.min(1.0, (double) busy[worker].get(slot) / windowNanos);
+            }
+        }
+        return fractions;
+    }
+}
@@ -0,0 +1,143 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+
+import memory.SharedMatrix;
+import memory.SharedVector;
+import memory.VectorOrientation;
+
+/**
+ * Reads and writes matrices in the binary ".lmat" format through memory-mapped files.
+ * <p>
+ * Layout, all little-endian:
+ * <pre>
+ *  offset  size  field
+ *       0     4  magic "LMAT"
+ *       4     2  format version (1)
+ *       6     1  element type (1 = float64)
+ *       7     1  storage layout (0 = row-major, 1 = column-major)
+ *       8     8  rows
+ *      16     8  columns
+ *      24     8  reserved, zero
+ *      32        payload: rows * columns doubles, vector after vector in the given layout
+ * </pre>
+ * The payload is copied straight into (or out of) the matrix storage, so a column-major
+ * matrix is neither written nor read back with a transpose.
+ */
+public final class BinaryMatrixIO {
+
+    public static final String EXTENSION = ".lmat";
+
+    private static final int MAGIC = 0x54414D4C; // "LMAT" read as a little-endian int
+    private static final short VERSION = 1;
+    private static final byte DTYPE_FLOAT64 = 1;
+    private static final byte LAYOUT_ROW_MAJOR = 0;
+    private static final byte LAYOUT_COLUMN_MAJOR = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final long MAX_WINDOW = 1L << 30; // bytes mapped at once, a multiple of 8
+
+    private BinaryMatrixIO() {}
+
+    public static boolean isBinaryPath(String path) {
+        return path.toLowerCase().endsWith(EXTENSION);
+    }
+
+    public static SharedMatrix read(Path path) throws IOException, ParseException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new ParseException("Binary matrix file is too short: " + path, 0);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new ParseException("Not a binary matrix file: " + path, 0);
+            }
+            if (header.getShort(4) != VERSION) {
+                throw new ParseException("Unsupported binary matrix version " + header.getShort(4) + ": " + path, 4);
+            }
+            if (header.get(6) != DTYPE_FLOAT64) {
+                throw new ParseException("Unsupported binary matrix element type " + header.get(6) + ": " + path, 6);
+            }
+            byte layout = header.get(7);
+            if (layout != LAYOUT_ROW_MAJOR && layout != LAYOUT_COLUMN_MAJOR) {
+                throw new ParseException("Unknown binary matrix layout " + layout + ": " + path, 7);
+            }
+            long rows = header.getLong(8);
+            long cols = header.getLong(16);
+            if (rows < 0 || cols < 0 || (cols != 0 && rows > (Integer.MAX_VALUE - 8) / cols)) {
+                throw new ParseException("Binary matrix of " + rows + "x" + cols + " is too large: " + path, 8);
+            }
+            int elements = (int) (rows * cols);
+            if (channel.size() < HEADER_SIZE + 8L * elements) {
+                throw new ParseException("Binary matrix payload is truncated: " + path, HEADER_SIZE);
+            }
+
+            double[] storage = new double[elements];
+            for (long done = 0; done < elements; ) {
+                int count = (int) Math.min(elements - done, MAX_WINDOW / 8);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + 8 * done, 8L * count);
+                window.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(storage, (int) done, count);
+                done += count;
+            }
+            if (rows == 0 || cols == 0) {
+                return new SharedMatrix();
+            }
+            if (layout == LAYOUT_ROW_MAJOR) {
+                return new SharedMatrix(storage, (int) rows, (int) cols);
+            }
+            // Columns stored one after the other are the rows of the transpose
+            return new SharedMatrix(storage, (int) cols, (int) rows).transposed();
+        }
+    }
+
+    public static void write(SharedMatrix matrix, Path path) throws IOException {
+        int rows = matrix.rowCount();
+        int cols = matrix.columnCount();
+        boolean rowMajor = matrix.getOrientation() == VectorOrientation.ROW_MAJOR;
+        long payload = 8L * rows * cols;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(MAGIC)
+                    .putShort(VERSION)
+                    .put(DTYPE_FLOAT64)
+                    .put(rowMajor ? LAYOUT_ROW_MAJOR : LAYOUT_COLUMN_MAJOR)
+                    .putLong(rows)
+                    .putLong(cols)
+                    .putLong(0);
+
+            // Copy vector after vector, moving the mapped window along as it fills up
+            long position = HEADER_SIZE;
+            DoubleBuffer window = null;
+            for (int v = 0; v < matrix.length(); v++) {
+                SharedVector vector = matrix.get(v);
+                vector.readLock();
+                try{
+                    int done = 0;
+                    while (done < vector.length()) {
+                        if (window == null || !window.hasRemaining()) {
+                            long size = Math.min(HEADER_SIZE + payload - position, MAX_WINDOW);
+                            window = channel.map(FileChannel.MapMode.READ_WRITE, position, size)
+                                    .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                            position += size;
+                        }
+                        int count = Math.min(vector.length() - done, window.remaining());
+                        window.put(vector.array(), vector.offset() + done, count);
+                        done += count;
+                    }
+                }
+                finally{
+                    vector.readUnlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns every set of identical subtrees into one node shared by all of their parents, so the
+ * engine evaluates it once. The tree becomes a DAG, which the engine handles as long as nodes
+ * are recognised by identity.
+ * <p>
+ * Subtrees are hash-consed bottom up. Two operations are the same when their operator,
+ * coefficients and transpose flags match and their operands are the same (already shared) nodes.
+ * Two matrices are the same when their {@link Fingerprint}s are: a 128-bit hash of shape and
+ * elements, bit for bit, taken in one pass that locks each vector once. Like the result cache,
+ * this relies on different matrices colliding with negligible probability.
+ */
+public class CommonSubexpressions {
+
+    private final Map<ComputationNode, ComputationNode> canonical = new IdentityHashMap<>();
+    private final Map<Fingerprint, ComputationNode> matrices = new HashMap<>();
+    private final Map<Operation, ComputationNode> operations = new HashMap<>();
+    private int merged = 0;
+
+    // An operation node as a hash key: equal keys compute the same matrix
+    private static final class Operation {
+        final ComputationNode node;
+        final int hash;
+
+        Operation(ComputationNode node) {
+            this.node = node;
+            int h = node.getNodeType().hashCode();
+            h = 31 * h + Arrays.hashCode(node.getCoefficients());
+            h = 31 * h + Arrays.hashCode(node.getTransposed());
+            for (ComputationNode child : node.getChildren()) {
+                h = 31 * h + System.identityHashCode(child);
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Operation)) {
+                return false;
+            }
+            ComputationNode other = ((Operation) o).node;
+            if (node.getNodeType() != other.getNodeType()
+                    || !Arrays.equals(node.getCoefficients(), other.getCoefficients())
+                    || !Arrays.equals(node.getTransposed(), other.getTransposed())
+                    || node.getChildren().size() != other.getChildren().size()) {
+                return false;
+            }
+            for (int i = 0; i < node.getChildren().size(); i++) {
+                if (node.getChildren().get(i) != other.getChildren().get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Shares identical subtrees of the tree rooted at {@code root} in place and returns how many
+     * nodes were merged into another one. The root object stays the root.
+     */
+    public int eliminate(ComputationNode root) {
+        share(root);
+        return merged;
+    }
+
+    private ComputationNode share(ComputationNode node) {
+        ComputationNode known = canonical.get(node);
+        if (known != null) {
+            return known;
+        }
+        ComputationNode result;
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            result = shareMatrix(node);
+        }
+        else {
+            List<ComputationNode> children = node.getChildren();
+            List<ComputationNode> shared = new ArrayList<>(children.size());
+            boolean changed = false;
+            for (ComputationNode child : children) {
+                ComputationNode c = share(child);
+                changed |= c != child;
+                shared.add(c);
+            }
+            if (changed) {
+                node.setChildren(shared);
+            }
+            result = operations.putIfAbsent(new Operation(node), node);
+            if (result == null) {
+                result = node;
+            }
+        }
+        if (result != node) {
+            merged++;
+        }
+        canonical.put(node, result);
+        return result;
+    }
+
+    private ComputationNode shareMatrix(ComputationNode node) {
+        ComputationNode known = matrices.putIfAbsent(Fingerprint.ofMatrix(node), node);
+        return known != null ? known : node;
+    }
+}
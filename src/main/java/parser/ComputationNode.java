@@ -1,12 +1,24 @@
 package parser;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+
+import memory.ContentHash;
+import memory.SharedMatrix;
+import memory.SparseMatrix;
 
 public class ComputationNode {
 
     private ComputationNodeType nodeType;
     private List<ComputationNode> children = null;
     private double[][] matrix = null; // only used for MATRIX nodes
+    private SharedMatrix sharedMatrix = null; // engine-native form of the same matrix, built on demand
+    private SparseMatrix sparseMatrix = null; // set for MATRIX nodes kept in sparse form
+    private double[] coefficients = null; // only used for LINEAR_COMBINATION nodes, one per operand
+    private boolean[] transposed = null; // only used for LINEAR_COMBINATION nodes, one per operand
 
     public ComputationNode(String operatorStr, List<ComputationNode> children) throws IllegalArgumentException {
         this.nodeType = mapOperator(operatorStr);
@@ -33,11 +45,35 @@ public class ComputationNode {
         this.children = children;
     }
 
+    /**
+     * Creates a LINEAR_COMBINATION node: the sum of coefficients[i] * operands[i],
+     * where operand i is transposed first if transposed[i] is set.
+     */
+    public ComputationNode(List<ComputationNode> operands, double[] coefficients, boolean[] transposed) {
+        if (operands.size() != coefficients.length || operands.size() != transposed.length) {
+            throw new IllegalArgumentException("Need one coefficient and one transpose flag per operand");
+        }
+        this.nodeType = ComputationNodeType.LINEAR_COMBINATION;
+        this.children = operands;
+        this.coefficients = coefficients;
+        this.transposed = transposed;
+    }
+
     public ComputationNode(double[][] matrix) {
         this.nodeType = ComputationNodeType.MATRIX;
         this.matrix = matrix;
     }
 
+    public ComputationNode(SharedMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.sharedMatrix = matrix;
+    }
+
+    public ComputationNode(SparseMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.sparseMatrix = matrix;
+    }
+
     public ComputationNodeType getNodeType() {
         return nodeType;
     }
@@ -46,6 +82,18 @@ public class ComputationNode {
         return children;
     }
 
+    void setChildren(List<ComputationNode> children) {
+        this.children = children;
+    }
+
+    public double[] getCoefficients() {
+        return coefficients;
+    }
+
+    public boolean[] getTransposed() {
+        return transposed;
+    }
+
     /**
      * Recursively finds the first resolvable node in the tree.
      * A resolvable node is defined as a node that is not of type MATRIX,
@@ -66,19 +114,105 @@ public class ComputationNode {
         return this;
     }
 
+    /**
+     * Collects every resolvable node in the tree (as defined in findResolvable).
+     * None of them depends on another, so they can all be computed at the same time.
+     * A subtree shared by several parents is only collected once.
+     */
+    public List<ComputationNode> findAllResolvable() {
+        List<ComputationNode> found = new ArrayList<>();
+        collectResolvable(found, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return found;
+    }
+
+    private void collectResolvable(List<ComputationNode> found, Set<ComputationNode> visited) {
+        if (nodeType == ComputationNodeType.MATRIX || !visited.add(this)) {
+            return;
+        }
+        boolean ready = true;
+        for (ComputationNode child : children) {
+            if (child.getNodeType() != ComputationNodeType.MATRIX) {
+                ready = false;
+                child.collectResolvable(found, visited);
+            }
+        }
+        if (ready) {
+            found.add(this);
+        }
+    }
+
     /**
      * Restructures the tree to ensure that operations with more than two operands
      * are nested in a left-associative manner.
      * For example, A + B + C becomes (A + B) + C.
      * Effectively, this converts n-ary operations (n > 2) into binary operations.
+     * Operands are restructured as well, so the whole tree ends up binary.
      */
     public void associativeNesting() {
-        if (children != null && children.size() > 2) {
+        if (children == null) {
+            return;
+        }
+        if (children.size() > 2 && nodeType != ComputationNodeType.LINEAR_COMBINATION) {
             ComputationNode lastChild = children.remove(children.size() - 1);
             ComputationNode newNode = new ComputationNode(nodeType, children);
             children = List.of(newNode, lastChild);
-            newNode.associativeNesting();
         }
+        for (ComputationNode child : children) {
+            child.associativeNesting();
+        }
+    }
+
+    /**
+     * Turns this node into a copy of {@code other}, so a rewritten subtree can take the place
+     * of a node that callers still hold a reference to.
+     */
+    void replaceWith(ComputationNode other) {
+        this.nodeType = other.nodeType;
+        this.children = other.children;
+        this.matrix = other.matrix;
+        this.sharedMatrix = other.sharedMatrix;
+        this.sparseMatrix = other.sparseMatrix;
+        this.coefficients = other.coefficients;
+        this.transposed = other.transposed;
+    }
+
+    /**
+     * Number of rows of a MATRIX node's matrix, without converting it to another form.
+     */
+    public int rowCount() {
+        if (matrix != null) {
+            return matrix.length;
+        }
+        if (sparseMatrix != null) {
+            return sparseMatrix.rowCount();
+        }
+        return getSharedMatrix().rowCount();
+    }
+
+    /**
+     * Number of columns of a MATRIX node's matrix, without converting it to another form.
+     */
+    public int columnCount() {
+        if (matrix != null) {
+            return matrix.length == 0 ? 0 : matrix[0].length;
+        }
+        if (sparseMatrix != null) {
+            return sparseMatrix.columnCount();
+        }
+        return getSharedMatrix().columnCount();
+    }
+
+    /**
+     * {@link ContentHash} of a MATRIX node's matrix, taken from whichever form it is stored in.
+     */
+    long[] contentHash() {
+        if (matrix != null) {
+            return ContentHash.of(matrix);
+        }
+        if (sparseMatrix != null) {
+            return ContentHash.of(sparseMatrix);
+        }
+        return ContentHash.of(getSharedMatrix());
     }
 
     /**
@@ -88,14 +222,72 @@ public class ComputationNode {
         this.nodeType = ComputationNodeType.MATRIX;
         this.children = null;
         this.matrix = matrix;
+        this.sharedMatrix = null;
+        this.sparseMatrix = null;
+        this.coefficients = null;
+        this.transposed = null;
+    }
+
+    /**
+     * Resolves this node with a matrix in engine-native form. It is handed to the parent
+     * operation as is, and only turned into a double[][] if someone asks for getMatrix().
+     */
+    public void resolve(SharedMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.sharedMatrix = matrix;
+        this.sparseMatrix = null;
+        this.coefficients = null;
+        this.transposed = null;
+    }
+
+    /**
+     * Resolves this node with a sparse matrix, which parents may consume without expanding it.
+     */
+    public void resolve(SparseMatrix matrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.sharedMatrix = null;
+        this.sparseMatrix = matrix;
+        this.coefficients = null;
+        this.transposed = null;
+    }
+
+    public boolean isSparse() {
+        return sparseMatrix != null;
+    }
+
+    public SparseMatrix getSparseMatrix() {
+        return sparseMatrix;
     }
 
     public double[][] getMatrix() {
         if (matrix == null) {
-            throw new IllegalStateException("This node does not contain a matrix.");
+            matrix = getSharedMatrix().readRowMajor();
         }
         return matrix;
     }
 
+    /**
+     * Returns this node's matrix in engine-native form, loading it from the double[][] (or
+     * expanding the sparse form) the first time.
+     */
+    public SharedMatrix getSharedMatrix() {
+        if (sharedMatrix == null) {
+            if (sparseMatrix != null) {
+                sharedMatrix = sparseMatrix.toDense();
+            }
+            else if (matrix == null) {
+                throw new IllegalStateException("This node does not contain a matrix.");
+            }
+            else {
+                sharedMatrix = new SharedMatrix(matrix);
+            }
+        }
+        return sharedMatrix;
+    }
+
 
 }
\ No newline at end of file
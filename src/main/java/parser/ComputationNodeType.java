@@ -3,11 +3,16 @@ package parser;
 /**
  * Computation nodes hold either an operation to be applied, or a matrix (2D array).
  * Matrices are always leaf nodes, while operation nodes have children.
+ * SUBTRACT has no operator in the input format; the optimizer produces it from A + (-B).
+ * LINEAR_COMBINATION has none either: it is a fused run of ADD, SUBTRACT, NEGATE and TRANSPOSE
+ * nodes, holding a signed, possibly transposed, term per operand.
  */
 public enum ComputationNodeType {
     ADD,
+    SUBTRACT,
     MULTIPLY,
     NEGATE,
     TRANSPOSE,
+    LINEAR_COMBINATION,
     MATRIX,
 }
\ No newline at end of file
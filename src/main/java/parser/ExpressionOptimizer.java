@@ -0,0 +1,374 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a computation tree into a cheaper but equivalent one before it is evaluated:
+ * <ul>
+ *   <li>chains of multiplications are re-parenthesized by the classic matrix-chain dynamic program,</li>
+ *   <li>double negations and double transposes cancel out,</li>
+ *   <li>a negation over a product moves onto its smallest factor,</li>
+ *   <li>a transpose over a product moves onto the factors when it cancels a transpose there,</li>
+ *   <li>A + (-B) becomes A - B,</li>
+ *   <li>every maximal run of ADD, SUBTRACT, NEGATE and TRANSPOSE nodes is fused into a single
+ *       LINEAR_COMBINATION node, which the engine computes in one pass over its operands.</li>
+ * </ul>
+ * Subtrees whose dimensions do not match are left in their original order, so the engine still
+ * reports the mismatch.
+ */
+public class ExpressionOptimizer {
+
+    private final Map<ComputationNode, int[]> shapes = new IdentityHashMap<>(); // rows, cols; null if invalid
+
+    /**
+     * Optimizes the tree rooted at {@code root} in place. The root object stays the root.
+     */
+    public void optimize(ComputationNode root) {
+        root.associativeNesting();
+        ComputationNode optimized = fuse(rewrite(root));
+        if (optimized != root) {
+            root.replaceWith(optimized);
+        }
+    }
+
+    private ComputationNode rewrite(ComputationNode node) {
+        if (!wellFormed(node)) {
+            return node; // Leave it for the engine to reject
+        }
+        switch (node.getNodeType()) {
+            case MATRIX:
+                return node;
+            case MULTIPLY:
+                return orderChain(node);
+            case NEGATE:
+                if (child(node, 0).getNodeType() == ComputationNodeType.MULTIPLY) {
+                    return orderChain(node);
+                }
+                return negate(rewrite(child(node, 0)));
+            case TRANSPOSE:
+                return transpose(rewrite(child(node, 0)));
+            case ADD:
+                return add(rewrite(child(node, 0)), rewrite(child(node, 1)));
+            case SUBTRACT:
+                return subtract(rewrite(child(node, 0)), rewrite(child(node, 1)));
+            default:
+                return node;
+        }
+    }
+
+    private ComputationNode negate(ComputationNode operand) {
+        switch (operand.getNodeType()) {
+            case NEGATE:
+                return child(operand, 0);
+            case MULTIPLY:
+                // -(A * B): negate whichever of A, B or the product has the fewest elements
+                ComputationNode a = child(operand, 0);
+                ComputationNode b = child(operand, 1);
+                long sizeA = size(a);
+                long sizeB = size(b);
+                long sizeProduct = size(operand);
+                if (sizeA >= 0 && sizeB >= 0 && sizeProduct >= 0) {
+                    if (sizeA <= sizeB && sizeA < sizeProduct) {
+                        return node(ComputationNodeType.MULTIPLY, negate(a), b);
+                    }
+                    if (sizeB < sizeA && sizeB < sizeProduct) {
+                        return node(ComputationNodeType.MULTIPLY, a, negate(b));
+                    }
+                }
+                return node(ComputationNodeType.NEGATE, operand);
+            default:
+                return node(ComputationNodeType.NEGATE, operand);
+        }
+    }
+
+    private ComputationNode transpose(ComputationNode operand) {
+        if (operand.getNodeType() == ComputationNodeType.TRANSPOSE) {
+            return child(operand, 0);
+        }
+        if (operand.getNodeType() == ComputationNodeType.MULTIPLY) {
+            // T(A * B) = T(B) * T(A), worth it only when one of them then cancels
+            ComputationNode a = child(operand, 0);
+            ComputationNode b = child(operand, 1);
+            if (a.getNodeType() == ComputationNodeType.TRANSPOSE || b.getNodeType() == ComputationNodeType.TRANSPOSE) {
+                return node(ComputationNodeType.MULTIPLY, transpose(b), transpose(a));
+            }
+        }
+        return node(ComputationNodeType.TRANSPOSE, operand);
+    }
+
+    // x + (-y), x - y and (-y) + x are the same IEEE operation, signed zeros included, so these are exact.
+    // -(A - B) is not B - A: where A == B it is -0.0 rather than +0.0, so negate() leaves it alone.
+    private ComputationNode add(ComputationNode a, ComputationNode b) {
+        if (b.getNodeType() == ComputationNodeType.NEGATE) {
+            return node(ComputationNodeType.SUBTRACT, a, child(b, 0));
+        }
+        if (a.getNodeType() == ComputationNodeType.NEGATE) {
+            return node(ComputationNodeType.SUBTRACT, b, child(a, 0));
+        }
+        return node(ComputationNodeType.ADD, a, b);
+    }
+
+    private ComputationNode subtract(ComputationNode a, ComputationNode b) {
+        if (b.getNodeType() == ComputationNodeType.NEGATE) {
+            return node(ComputationNodeType.ADD, a, child(b, 0));
+        }
+        return node(ComputationNodeType.SUBTRACT, a, b);
+    }
+
+    /**
+     * Replaces every maximal element-wise subtree below (and including) {@code node} with a
+     * LINEAR_COMBINATION of its non-element-wise operands. A plain transpose of a matrix or a
+     * product is left alone, since the engine does it as an O(1) view. A negation over a whole sum
+     * stays a second combination with coefficient -1, so a sum that cancels comes out -0.0 as it would unfused.
+     */
+    private ComputationNode fuse(ComputationNode node) {
+        if ((isElementwise(node) && node.getNodeType() != ComputationNodeType.TRANSPOSE) || transposesElementwise(node)) {
+            ComputationNode top = node;
+            boolean transposed = false;
+            while (top.getNodeType() == ComputationNodeType.TRANSPOSE) {
+                transposed = !transposed;
+                top = child(top, 0);
+            }
+            if (top.getNodeType() == ComputationNodeType.NEGATE) {
+                ComputationNode sum = combination(child(top, 0), transposed);
+                if (sum.getChildren().size() > 1) {
+                    // A sum that cancels is +0.0, so the -1 is applied to the finished sum to keep its -0.0
+                    return new ComputationNode(new ArrayList<>(List.of(sum)), new double[]{-1}, new boolean[]{false});
+                }
+            }
+            return combination(node, false);
+        }
+        if (node.getChildren() == null) {
+            return node;
+        }
+        List<ComputationNode> children = new ArrayList<>();
+        boolean changed = false;
+        for (ComputationNode child : node.getChildren()) {
+            ComputationNode fused = fuse(child);
+            changed |= fused != child;
+            children.add(fused);
+        }
+        if (!changed) {
+            return node;
+        }
+        if (node.getNodeType() == ComputationNodeType.LINEAR_COMBINATION) {
+            return new ComputationNode(children, node.getCoefficients(), node.getTransposed());
+        }
+        return new ComputationNode(node.getNodeType(), children);
+    }
+
+    private ComputationNode combination(ComputationNode node, boolean transposedAll) {
+        List<ComputationNode> operands = new ArrayList<>();
+        List<Double> coefficients = new ArrayList<>();
+        List<Boolean> transposed = new ArrayList<>();
+        collectTerms(node, 1.0, transposedAll, operands, coefficients, transposed);
+        double[] c = new double[operands.size()];
+        boolean[] t = new boolean[operands.size()];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = coefficients.get(i);
+            t[i] = transposed.get(i);
+        }
+        return new ComputationNode(operands, c, t);
+    }
+
+    private void collectTerms(ComputationNode node, double sign, boolean transposed,
+                              List<ComputationNode> operands, List<Double> coefficients, List<Boolean> transposedFlags) {
+        if (!isElementwise(node)) {
+            operands.add(fuse(node));
+            coefficients.add(sign);
+            transposedFlags.add(transposed);
+            return;
+        }
+        switch (node.getNodeType()) {
+            case ADD:
+                collectTerms(child(node, 0), sign, transposed, operands, coefficients, transposedFlags);
+                collectTerms(child(node, 1), sign, transposed, operands, coefficients, transposedFlags);
+                break;
+            case SUBTRACT:
+                collectTerms(child(node, 0), sign, transposed, operands, coefficients, transposedFlags);
+                collectTerms(child(node, 1), -sign, transposed, operands, coefficients, transposedFlags);
+                break;
+            case NEGATE:
+                collectTerms(child(node, 0), -sign, transposed, operands, coefficients, transposedFlags);
+                break;
+            default: // TRANSPOSE
+                collectTerms(child(node, 0), sign, !transposed, operands, coefficients, transposedFlags);
+                break;
+        }
+    }
+
+    private static boolean isElementwise(ComputationNode node) {
+        switch (node.getNodeType()) {
+            case ADD:
+            case SUBTRACT:
+            case NEGATE:
+            case TRANSPOSE:
+                return wellFormed(node);
+            default:
+                return false;
+        }
+    }
+
+    // True for a chain of transposes with an element-wise operation underneath
+    private static boolean transposesElementwise(ComputationNode node) {
+        while (node.getNodeType() == ComputationNodeType.TRANSPOSE && wellFormed(node)) {
+            node = child(node, 0);
+        }
+        return isElementwise(node) && node.getNodeType() != ComputationNodeType.TRANSPOSE;
+    }
+
+    /**
+     * Flattens the product chain rooted at {@code node} (looking through negations), optimizes
+     * every factor, and rebuilds the chain in the order with the fewest scalar multiplications.
+     */
+    private ComputationNode orderChain(ComputationNode node) {
+        List<ComputationNode> factors = new ArrayList<>();
+        boolean negative = collectFactors(node, factors);
+        for (int i = 0; i < factors.size(); i++) {
+            ComputationNode factor = rewrite(factors.get(i));
+            while (factor.getNodeType() == ComputationNodeType.NEGATE) {
+                negative = !negative;
+                factor = child(factor, 0);
+            }
+            factors.set(i, factor);
+        }
+
+        int n = factors.size();
+        long[] dims = new long[n + 1];
+        boolean valid = true;
+        for (int i = 0; i < n && valid; i++) {
+            int[] shape = shape(factors.get(i));
+            if (shape == null || (i > 0 && dims[i] != shape[0])) {
+                valid = false;
+            }
+            else {
+                dims[i] = shape[0];
+                dims[i + 1] = shape[1];
+            }
+        }
+
+        ComputationNode chain;
+        if (valid) {
+            int[][] split = chainOrder(dims);
+            chain = build(factors, split, 0, n - 1);
+        }
+        else {
+            chain = factors.get(0);
+            for (int i = 1; i < n; i++) {
+                chain = node(ComputationNodeType.MULTIPLY, chain, factors.get(i));
+            }
+        }
+        return negative ? negate(chain) : chain;
+    }
+
+    // Appends the factors of a product chain in order; returns true if an odd number of negations was passed
+    private boolean collectFactors(ComputationNode node, List<ComputationNode> factors) {
+        if (!wellFormed(node)) {
+            factors.add(node);
+            return false;
+        }
+        if (node.getNodeType() == ComputationNodeType.MULTIPLY) {
+            boolean negative = false;
+            for (ComputationNode child : node.getChildren()) {
+                negative ^= collectFactors(child, factors);
+            }
+            return negative;
+        }
+        if (node.getNodeType() == ComputationNodeType.NEGATE) {
+            return !collectFactors(child(node, 0), factors);
+        }
+        factors.add(node);
+        return false;
+    }
+
+    // Standard O(n^3) matrix-chain order; split[i][j] is where the product of factors i..j is cut
+    private static int[][] chainOrder(long[] dims) {
+        int n = dims.length - 1;
+        long[][] cost = new long[n][n];
+        int[][] split = new int[n][n];
+        for (int length = 2; length <= n; length++) {
+            for (int i = 0; i + length - 1 < n; i++) {
+                int j = i + length - 1;
+                cost[i][j] = Long.MAX_VALUE;
+                for (int k = i; k < j; k++) {
+                    long c = cost[i][k] + cost[k + 1][j] + dims[i] * dims[k + 1] * dims[j + 1];
+                    if (c < cost[i][j]) {
+                        cost[i][j] = c;
+                        split[i][j] = k;
+                    }
+                }
+            }
+        }
+        return split;
+    }
+
+    private ComputationNode build(List<ComputationNode> factors, int[][] split, int i, int j) {
+        if (i == j) {
+            return factors.get(i);
+        }
+        int k = split[i][j];
+        return node(ComputationNodeType.MULTIPLY, build(factors, split, i, k), build(factors, split, k + 1, j));
+    }
+
+    private long size(ComputationNode node) {
+        int[] shape = shape(node);
+        return shape == null ? -1 : (long) shape[0] * shape[1];
+    }
+
+    private int[] shape(ComputationNode node) {
+        if (shapes.containsKey(node)) {
+            return shapes.get(node);
+        }
+        int[] shape = null;
+        switch (node.getNodeType()) {
+            case MATRIX:
+                shape = new int[]{node.rowCount(), node.columnCount()};
+                break;
+            case NEGATE:
+                shape = shape(child(node, 0));
+                break;
+            case TRANSPOSE:
+                int[] inner = shape(child(node, 0));
+                shape = inner == null ? null : new int[]{inner[1], inner[0]};
+                break;
+            case ADD:
+            case SUBTRACT:
+                int[] a = shape(child(node, 0));
+                int[] b = shape(child(node, 1));
+                shape = a != null && b != null && a[0] == b[0] && a[1] == b[1] ? a : null;
+                break;
+            case MULTIPLY:
+                int[] left = shape(child(node, 0));
+                int[] right = shape(child(node, 1));
+                shape = left != null && right != null && left[1] == right[0] ? new int[]{left[0], right[1]} : null;
+                break;
+            default:
+                break;
+        }
+        shapes.put(node, shape);
+        return shape;
+    }
+
+    private static boolean wellFormed(ComputationNode node) {
+        switch (node.getNodeType()) {
+            case MATRIX:
+                return true;
+            case NEGATE:
+            case TRANSPOSE:
+                return node.getChildren() != null && node.getChildren().size() == 1;
+            default:
+                return node.getChildren() != null && node.getChildren().size() == 2;
+        }
+    }
+
+    private static ComputationNode child(ComputationNode node, int index) {
+        return node.getChildren().get(index);
+    }
+
+    private static ComputationNode node(ComputationNodeType type, ComputationNode... children) {
+        return new ComputationNode(type, new ArrayList<>(List.of(children)));
+    }
+}
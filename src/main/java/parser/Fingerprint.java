@@ -0,0 +1,103 @@
+package parser;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import memory.ContentHash;
+
+/**
+ * A 128-bit structural hash of a computation subtree that identifies the same expression across
+ * jobs, where the matrices are new objects every time. Matrices are hashed by content (see
+ * {@link ContentHash}), operations by operator, coefficients, transpose flags and their operands'
+ * fingerprints in order. Equal subtrees always have equal fingerprints; different ones collide
+ * with negligible probability, which is what a result cache keyed on them relies on.
+ */
+public final class Fingerprint {
+
+    private final long high;
+    private final long low;
+
+    private Fingerprint(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Fingerprints of every node reachable from {@code root}, each shared node computed once.
+     * Hashing reads every element of every matrix in the tree once.
+     */
+    public static Map<ComputationNode, Fingerprint> of(ComputationNode root) {
+        Map<ComputationNode, Fingerprint> fingerprints = new IdentityHashMap<>();
+        compute(root, fingerprints);
+        return fingerprints;
+    }
+
+    private static Fingerprint compute(ComputationNode node, Map<ComputationNode, Fingerprint> fingerprints) {
+        Fingerprint known = fingerprints.get(node);
+        if (known != null) {
+            return known;
+        }
+        Fingerprint result;
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            result = ofMatrix(node);
+        }
+        else {
+            long high = node.getNodeType().ordinal() + 1;
+            long low = ~high;
+            double[] coefficients = node.getCoefficients();
+            if (coefficients != null) {
+                for (double c : coefficients) {
+                    high = step(high, Double.doubleToLongBits(c));
+                    low = step(low, Double.doubleToLongBits(c) ^ low);
+                }
+            }
+            boolean[] transposed = node.getTransposed();
+            if (transposed != null) {
+                for (boolean t : transposed) {
+                    high = step(high, t ? 1 : 2);
+                    low = step(low, t ? 3 : 4);
+                }
+            }
+            List<ComputationNode> children = node.getChildren();
+            for (ComputationNode child : children) {
+                Fingerprint operand = compute(child, fingerprints);
+                high = step(high, operand.high);
+                low = step(low, operand.low ^ operand.high);
+            }
+            result = new Fingerprint(ContentHash.mix(high), ContentHash.mix(low ^ children.size()));
+        }
+        fingerprints.put(node, result);
+        return result;
+    }
+
+    // A MATRIX node's fingerprint: its content hash, one pass over its elements
+    static Fingerprint ofMatrix(ComputationNode node) {
+        long[] hash = node.contentHash();
+        return new Fingerprint(hash[0], hash[1]);
+    }
+
+    // Order-dependent combination, so A - B and B - A differ
+    private static long step(long hash, long value) {
+        return ContentHash.mix(hash * 31 + value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Fingerprint)) {
+            return false;
+        }
+        Fingerprint other = (Fingerprint) o;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high ^ low);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
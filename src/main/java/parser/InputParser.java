@@ -1,68 +1,338 @@
 package parser;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import memory.SharedMatrix;
+import memory.SparseMatrix;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.util.*;
 
+/**
+ * Reads the input expression with Jackson's streaming parser. Matrix elements go straight into
+ * the row-major double[] that backs the leaf's SharedMatrix, without building a JsonNode tree.
+ * A leaf may also be a reference {@code {"file": "a.lmat"}} to a binary matrix file (see
+ * {@link BinaryMatrixIO}), resolved relative to the input file's directory, or a sparse matrix
+ * given as triplets: {@code {"rows": 3, "cols": 3, "entries": [[0, 2, 1.5], [2, 0, -1]]}}.
+ * Triplet matrices that are big enough and mostly zeros become sparse leaves. Matrices written out in
+ * full only do with {@link #setAutoSparse(boolean)}, since results computed sparse can differ from dense
+ * ones in rounding.
+ */
 public class InputParser {
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final int INITIAL_CAPACITY = 64; // doubles reserved for a matrix before its size is known
+    static final int SPARSE_MIN_ELEMENTS = 4096; // smaller matrices stay dense whatever their density
 
-    public ComputationNode parse(String inputPath) throws ParseException {
+    private final JsonFactory factory = new JsonFactory();
+    private volatile boolean autoSparse = false; // also make written-out matrices sparse when worth it
+    private volatile Path fileRoot = null; // when set, file references must stay inside it
+
+    /**
+     * Lets matrices written out in full become sparse leaves too when they are big enough and mostly zeros.
+     */
+    public void setAutoSparse(boolean autoSparse) {
+        this.autoSparse = autoSparse;
+    }
+
+    /**
+     * Confines {@code {"file": ...}} references to {@code root}: see {@link #resolveInside}.
+     * Null, the default, lets them name any file.
+     */
+    public void setFileRoot(Path root) {
+        this.fileRoot = root;
+    }
+
+    /**
+     * Resolves {@code path} against {@code base}, a directory inside {@code root}, for a caller that
+     * must not reach outside {@code root}: the path must be relative, must not contain "..", and
+     * must not lead out of {@code root} through a symbolic link. Throws IllegalArgumentException otherwise.
+     */
+    public static Path resolveInside(Path root, Path base, String path) {
+        Path relative = Paths.get(path);
+        if (relative.isAbsolute() || relative.getRoot() != null) {
+            throw new IllegalArgumentException("Path must be relative: " + path);
+        }
+        for (Path part : relative) {
+            if (part.toString().equals("..")) {
+                throw new IllegalArgumentException("Path must not contain \"..\": " + path);
+            }
+        }
+        Path resolved = base.resolve(relative).normalize();
         try {
-            File inputFile = new File(inputPath);
-            JsonNode rootJsonNode = mapper.readTree(inputFile);
-            ComputationNode root = parseJsonNode(rootJsonNode);
-            return root;
+            // The deepest part that exists shows where symbolic links lead
+            Path existing = resolved;
+            while (existing != null && !Files.exists(existing)) {
+                existing = existing.getParent();
+            }
+            if (existing == null || !existing.toRealPath().startsWith(root.toRealPath())) {
+                throw new IllegalArgumentException("Path leads out of the root directory: " + path);
+            }
         } catch (IOException e) {
-            throw new ParseException("Failed to read the input JSON file: " + e.getMessage(), 0);
+            throw new IllegalArgumentException("Cannot resolve " + path + ": " + e.getMessage());
         }
+        return resolved;
     }
 
-    private ComputationNode parseJsonNode(JsonNode jsonNode) throws ParseException {
-        if (jsonNode.has("operator") && jsonNode.has("operands")) {
-            String operatorStr = jsonNode.get("operator").asText();
-            ArrayNode operandJsonNodes = (ArrayNode) jsonNode.get("operands");
-            List<ComputationNode> operands = new ArrayList<>();
-            for (int i = 0; i < operandJsonNodes.size(); i++) {
-                operands.add(parseJsonNode(operandJsonNodes.get(i)));
+    /**
+     * Parses a JSON expression file, or a single binary matrix if the path ends with {@value BinaryMatrixIO#EXTENSION}.
+     */
+    public ComputationNode parse(String inputPath) throws ParseException {
+        if (BinaryMatrixIO.isBinaryPath(inputPath)) {
+            try {
+                return new ComputationNode(BinaryMatrixIO.read(Paths.get(inputPath)));
+            } catch (IOException e) {
+                throw new ParseException("Failed to read the input binary matrix file: " + e.getMessage(), 0);
             }
-            return new ComputationNode(operatorStr, operands);
         }
-        else if (jsonNode.isArray()) {
-            if (jsonNode.size() == 0) {
-                throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
+        Path baseDirectory = Paths.get(inputPath).toAbsolutePath().getParent();
+        try (JsonParser parser = factory.createParser(new File(inputPath))) {
+            return parse(parser, baseDirectory);
+        } catch (IOException e) {
+            throw new ParseException("Failed to read the input JSON file: " + e.getMessage(), 0);
+        }
+    }
+
+    /**
+     * Parses the next JSON value of {@code parser} as a computation tree.
+     * If the parser already stands on the value's first token, parsing starts there.
+     * File references are resolved against {@code baseDirectory}.
+     */
+    public ComputationNode parse(JsonParser parser, Path baseDirectory) throws ParseException, IOException {
+        JsonToken token = parser.currentToken();
+        if (token == null || token == JsonToken.FIELD_NAME) {
+            token = parser.nextToken();
+        }
+        if (token == null) {
+            throw new ParseException("Invalid node structure: empty document", 0);
+        }
+        return parseValue(parser, baseDirectory);
+    }
+
+    // The parser stands on the first token of the value
+    private ComputationNode parseValue(JsonParser parser, Path baseDirectory) throws ParseException, IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            return parseOperation(parser, baseDirectory);
+        }
+        else if (token == JsonToken.START_ARRAY) {
+            return parseMatrix(parser);
+        }
+        else { throw new ParseException("Invalid node structure: " + parser.getText(), offset(parser)); }
+    }
+
+    private ComputationNode parseOperation(JsonParser parser, Path baseDirectory) throws ParseException, IOException {
+        String operatorStr = null;
+        String file = null;
+        long sparseRows = -1;
+        long sparseCols = -1;
+        TripletReader triplets = null;
+        List<ComputationNode> operands = null;
+        Set<String> fields = new LinkedHashSet<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            fields.add(field);
+            JsonToken value = parser.nextToken();
+            if (field.equals("operator")) {
+                operatorStr = parser.getValueAsString();
+                if (operatorStr == null) {
+                    operatorStr = parser.getText();
+                    parser.skipChildren();
+                }
+            }
+            else if (field.equals("operands")) {
+                if (value != JsonToken.START_ARRAY) {
+                    throw new ParseException("Invalid node structure: operands must be an array", offset(parser));
+                }
+                operands = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    operands.add(parseValue(parser, baseDirectory));
+                }
+            }
+            else if (field.equals("rows")) {
+                sparseRows = readDimension(parser, field);
             }
-            // Check if it's a vector (1D array)
-            if (jsonNode.get(0).isNumber()) {
-                throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
+            else if (field.equals("cols")) {
+                sparseCols = readDimension(parser, field);
+            }
+            else if (field.equals("entries")) {
+                if (value != JsonToken.START_ARRAY) {
+                    throw new ParseException("Invalid node structure: entries must be an array", offset(parser));
+                }
+                triplets = new TripletReader();
+                triplets.read(parser);
+            }
+            else if (field.equals("file")) {
+                file = parser.getValueAsString();
+                if (file == null) {
+                    throw new ParseException("Invalid node structure: file must be a string", offset(parser));
+                }
             }
-            // Otherwise, it's a matrix (2D array)
             else {
-                double[][] matrix = new double[jsonNode.size()][];
-                int width = jsonNode.get(0).size();
-                for (int i = 0; i < jsonNode.size(); i++) {
-                    JsonNode rowJsonNode = jsonNode.get(i);
-                    if (rowJsonNode.size() != width) {
-                        throw new ParseException("Inconsistent row sizes in matrix.", 0);
-                    }
-                    if (!rowJsonNode.isArray()) {
-                        throw new ParseException("Invalid matrix row: " + rowJsonNode.toString(), 0);
-                    }
-                    matrix[i] = new double[rowJsonNode.size()];
-                    for (int j = 0; j < rowJsonNode.size(); j++) {
-                        matrix[i][j] = rowJsonNode.get(j).asDouble();
-                    }
+                parser.skipChildren();
+            }
+        }
+        if (file != null && operatorStr == null && operands == null) {
+            Path root = fileRoot;
+            if (root == null) {
+                return readMatrixFile(baseDirectory.resolve(file));
+            }
+            try {
+                return readMatrixFile(resolveInside(root, baseDirectory, file));
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Invalid node structure: " + e.getMessage(), offset(parser));
+            }
+        }
+        if (triplets != null && operatorStr == null && operands == null) {
+            if (sparseRows < 0 || sparseCols < 0) {
+                throw new ParseException("Invalid node structure: a sparse matrix needs rows and cols", offset(parser));
+            }
+            SparseMatrix entries;
+            try {
+                entries = triplets.build((int) sparseRows, (int) sparseCols);
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Invalid sparse entry: " + e.getMessage(), offset(parser));
+            }
+            return keepSparse((long) entries.rowCount() * entries.columnCount(), entries.nonZeros())
+                    ? new ComputationNode(entries)
+                    : new ComputationNode(entries.toDense());
+        }
+        if (operatorStr == null || operands == null) {
+            throw new ParseException("Invalid node structure: object with fields " + fields, offset(parser));
+        }
+        return new ComputationNode(operatorStr, operands);
+    }
+
+    private ComputationNode parseMatrix(JsonParser parser) throws ParseException, IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            throw new ParseException("Empty array cannot be parsed as DataNode.", offset(parser));
+        }
+        // Check if it's a vector (1D array)
+        if (token.isNumeric()) {
+            throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", offset(parser));
+        }
+        // Otherwise, it's a matrix (2D array), read row by row into one growing array
+        double[] storage = new double[INITIAL_CAPACITY];
+        int size = 0;
+        int rows = 0;
+        int width = -1;
+        int nonZeros = 0;
+        for (; token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token != JsonToken.START_ARRAY) {
+                throw new ParseException("Invalid matrix row: " + parser.getText(), offset(parser));
+            }
+            int rowStart = size;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (size == storage.length) {
+                    storage = Arrays.copyOf(storage, storage.length * 2);
+                }
+                double element = elementValue(parser, token);
+                if (SparseMatrix.needsStoring(element)) {
+                    nonZeros++;
                 }
-                return new ComputationNode(matrix);
+                storage[size++] = element;
+            }
+            int rowSize = size - rowStart;
+            if (width == -1) {
+                width = rowSize;
+            }
+            else if (rowSize != width) {
+                throw new ParseException("Inconsistent row sizes in matrix.", offset(parser));
             }
+            rows++;
         }
-        else { throw new ParseException("Invalid node structure: " + jsonNode.toString(), 0); }
+        if (storage.length != size) {
+            storage = Arrays.copyOf(storage, size);
+        }
+        if (autoSparse && keepSparse(size, nonZeros)) {
+            return new ComputationNode(SparseMatrix.fromRowMajor(storage, rows, width));
+        }
+        return new ComputationNode(new SharedMatrix(storage, rows, width));
+    }
+
+    private ComputationNode readMatrixFile(Path path) throws ParseException {
+        try {
+            return new ComputationNode(BinaryMatrixIO.read(path));
+        } catch (IOException e) {
+            throw new ParseException("Failed to read matrix file " + path + ": " + e.getMessage(), 0);
+        }
+    }
+
+    private static boolean keepSparse(long size, long nonZeros) {
+        return size >= SPARSE_MIN_ELEMENTS && nonZeros <= SparseMatrix.DENSITY_THRESHOLD * size;
+    }
+
+    private long readDimension(JsonParser parser, String field) throws ParseException, IOException {
+        if (parser.currentToken() != JsonToken.VALUE_NUMBER_INT || parser.getLongValue() < 0 || parser.getLongValue() > Integer.MAX_VALUE) {
+            throw new ParseException("Invalid node structure: " + field + " must be a non-negative integer", offset(parser));
+        }
+        return parser.getLongValue();
+    }
+
+    // Collects [row, column, value] entries of a sparse matrix as they stream by
+    private static final class TripletReader {
+        int[] rowIndices = new int[INITIAL_CAPACITY];
+        int[] colIndices = new int[INITIAL_CAPACITY];
+        double[] values = new double[INITIAL_CAPACITY];
+        int count = 0;
+
+        // The parser stands on the START_ARRAY of the entries
+        void read(JsonParser parser) throws ParseException, IOException {
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() != JsonToken.START_ARRAY
+                        || parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                    throw new ParseException("Invalid sparse entry: expected [row, column, value]", offset(parser));
+                }
+                int row = parser.getIntValue();
+                if (parser.nextToken() != JsonToken.VALUE_NUMBER_INT) {
+                    throw new ParseException("Invalid sparse entry: expected [row, column, value]", offset(parser));
+                }
+                int col = parser.getIntValue();
+                if (!parser.nextToken().isNumeric()) {
+                    throw new ParseException("Invalid sparse entry: expected [row, column, value]", offset(parser));
+                }
+                double value = parser.getDoubleValue();
+                if (parser.nextToken() != JsonToken.END_ARRAY) {
+                    throw new ParseException("Invalid sparse entry: expected [row, column, value]", offset(parser));
+                }
+                if (count == values.length) {
+                    rowIndices = Arrays.copyOf(rowIndices, count * 2);
+                    colIndices = Arrays.copyOf(colIndices, count * 2);
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                rowIndices[count] = row;
+                colIndices[count] = col;
+                values[count++] = value;
+            }
+        }
+
+        SparseMatrix build(int rows, int cols) {
+            return SparseMatrix.fromTriplets(rows, cols, rowIndices, colIndices, values, count);
+        }
+    }
+
+    // Same conversions as JsonNode.asDouble(): numbers as is, numeric strings parsed, anything else 0
+    private double elementValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token.isNumeric()) {
+            return parser.getDoubleValue();
+        }
+        if (token.isStructStart()) {
+            parser.skipChildren();
+            return 0.0;
+        }
+        return parser.getValueAsDouble(0.0);
+    }
+
+    private static int offset(JsonParser parser) {
+        long offset = parser.currentLocation().getCharOffset();
+        return offset < 0 || offset > Integer.MAX_VALUE ? 0 : (int) offset;
     }
 
-}
\ No newline at end of file
+}
@@ -2,13 +2,26 @@ package parser;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
+import memory.SharedMatrix;
+import memory.SharedVector;
+import memory.VectorOrientation;
+
 public class OutputWriter {
 
     private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
 
+    private static final int BUFFER_SIZE = 1 << 16; // bytes collected before each write to the channel
+    private static final String NEW_LINE = System.lineSeparator();
+
     public static class ResultMatrix {
         public double[][] result;
         public ResultMatrix(double[][] result) { this.result = result; }
@@ -22,8 +35,91 @@ public class OutputWriter {
     public OutputWriter() {}
 
     public static void write(double[][] matrix, String filePath) throws IOException {
-        File file = new File(filePath);
-        mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ResultMatrix(matrix));
+        write(new SharedMatrix(matrix), filePath, false);
+    }
+
+    public static void write(SharedMatrix matrix, String filePath) throws IOException {
+        write(matrix, filePath, false);
+    }
+
+    /**
+     * Streams {@code matrix} to {@code filePath} row by row, without building the whole document in memory.
+     * Only the serialization is streamed: the matrix must be fully computed first, so writing does
+     * not overlap with the computation that produces it.
+     * The default layout is byte-for-byte what Jackson's default pretty printer produces for a
+     * {@link ResultMatrix}; {@code compact} drops all whitespace instead.
+     */
+    public static void write(SharedMatrix matrix, String filePath, boolean compact) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelWriter out = new ChannelWriter(channel);
+            writeDocument(out, matrix, compact, null);
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes {@code {"id":<id>,"result":[...]}} as one compact line to {@code channel}, which stays open.
+     * {@code id} must already be JSON (a number or a quoted string) made of ASCII characters only.
+     */
+    public static void writeLine(SharedMatrix matrix, String id, WritableByteChannel channel) throws IOException {
+        ChannelWriter out = new ChannelWriter(channel);
+        writeDocument(out, matrix, true, id);
+        out.append("\n");
+        out.flush();
+    }
+
+    // The result document, with an "id" member in front when id is set (compact layout only)
+    private static void writeDocument(ChannelWriter out, SharedMatrix matrix, boolean compact, String id) throws IOException {
+        String separator = compact ? "," : ", ";
+        if (id != null) {
+            out.append("{\"id\":");
+            out.append(id);
+            out.append(",\"result\":[");
+        }
+        else {
+            out.append(compact ? "{\"result\":[" : "{" + NEW_LINE + "  \"result\" : [");
+        }
+        int rows = matrix.rowCount();
+        int cols = matrix.columnCount();
+        if (matrix.getOrientation() == VectorOrientation.ROW_MAJOR) {
+            for (int i = 0; i < rows; i++) {
+                SharedVector row = matrix.get(i);
+                row.readLock();
+                try{
+                    out.append(i == 0 ? (compact ? "" : " ") : separator);
+                    writeRow(out, row.array(), row.offset(), cols, compact);
+                }
+                finally{
+                    row.readUnlock();
+                }
+            }
+        }
+        else {
+            // Column-major storage: hold every column for the whole walk and gather each row
+            SharedVector[] columns = new SharedVector[cols];
+            int locked = 0;
+            try{
+                for (; locked < cols; locked++) {
+                    columns[locked] = matrix.get(locked);
+                    columns[locked].readLock();
+                }
+                double[] rowBuffer = new double[cols];
+                for (int i = 0; i < rows; i++) {
+                    for (int j = 0; j < cols; j++) {
+                        rowBuffer[j] = columns[j].array()[columns[j].offset() + i];
+                    }
+                    out.append(i == 0 ? (compact ? "" : " ") : separator);
+                    writeRow(out, rowBuffer, 0, cols, compact);
+                }
+            }
+            finally{
+                for (int j = 0; j < locked; j++) {
+                    columns[j].readUnlock();
+                }
+            }
+        }
+        out.append(compact ? "]}" : " ]" + NEW_LINE + "}");
     }
 
     public static void write(String error, String filePath) throws IOException {
@@ -31,4 +127,66 @@ public class OutputWriter {
         mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ErrorMessage(error));
     }
 
+    private static void writeRow(ChannelWriter out, double[] source, int offset, int length, boolean compact) throws IOException {
+        if (length == 0) {
+            out.append(compact ? "[]" : "[ ]");
+            return;
+        }
+        out.append(compact ? "[" : "[ ");
+        for (int j = 0; j < length; j++) {
+            if (j > 0) {
+                out.append(compact ? "," : ", ");
+            }
+            out.append(formatDouble(source[offset + j]));
+        }
+        out.append(compact ? "]" : " ]");
+    }
+
+    /**
+     * Shortest decimal string that reads back to the same double (the JDK's Double.toString has
+     * guaranteed this since JDK 19). Non-finite values are quoted, as Jackson writes them by default.
+     */
+    static String formatDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "\"" + value + "\"";
+        }
+        return Double.toString(value);
+    }
+
+    // Collects ASCII output in a fixed buffer and hands it to the channel whenever it fills up.
+    // Pieces are tokens and numbers, far shorter than the buffer; a longer one (an id) bypasses it.
+    private static final class ChannelWriter {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        ChannelWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void append(String text) throws IOException {
+            int length = text.length();
+            if (buffer.remaining() < length) {
+                flush();
+                if (length > buffer.capacity()) {
+                    ByteBuffer whole = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+                    while (whole.hasRemaining()) {
+                        channel.write(whole);
+                    }
+                    return;
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                buffer.put((byte) text.charAt(i));
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
 }
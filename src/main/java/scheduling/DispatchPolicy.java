@@ -0,0 +1,14 @@
+package scheduling;
+/**
+ * How a TiredExecutor in HANDOFF mode picks which idle worker gets the next task.
+ * LEAST_TIRED, the default, always takes the least tired idle worker, from a heap: O(log n) per task
+ * under one lock. TWO_CHOICES, opt-in, takes the less tired of two idle workers picked at random:
+ * lock-free, and O(1) while several workers are idle, at the price of sometimes passing over the least
+ * tired one, so fatigue may spread less evenly. With 8 workers on 64x64 jobs, TWO_CHOICES ran
+ * 0-16% more jobs per second, but worker fatigue varied by 3-9% instead of under 0.1%.
+ * Main, BatchRunner and JobServer choose one with {@code --dispatch}.
+ */
+public enum DispatchPolicy {
+    LEAST_TIRED,
+    TWO_CHOICES
+}
@@ -0,0 +1,12 @@
+package scheduling;
+/**
+ * How a TiredExecutor hands tasks to its workers.
+ * In HANDOFF mode each task is given to an idle worker through its single-slot queue, preferring the
+ * less tired ones as its {@link DispatchPolicy} says, and the submitter blocks while every worker is busy.
+ * In WORK_STEALING mode tasks are pushed onto per-worker deques without blocking; idle workers
+ * steal from each other, and the submitting thread runs tasks too while it waits.
+ */
+public enum ExecutionMode {
+    HANDOFF,
+    WORK_STEALING
+}
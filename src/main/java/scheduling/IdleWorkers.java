@@ -0,0 +1,158 @@
+package scheduling;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HANDOFF mode: the workers waiting for a task, and the policy that picks one of them.
+ * Only the pick itself is timed, not the wait for a worker to become idle, so the reported
+ * cost is what the policy adds to every dispatch.
+ */
+abstract class IdleWorkers {
+
+    private final LongAdder picks = new LongAdder();
+    private final LongAdder pickNanos = new LongAdder();
+
+    static IdleWorkers create(DispatchPolicy policy, TiredThread[] workers) {
+        return policy == DispatchPolicy.LEAST_TIRED ? new LeastTired() : new TwoChoices(workers);
+    }
+
+    /**
+     * Takes an idle worker, waiting for one if all are busy.
+     */
+    abstract TiredThread take() throws InterruptedException;
+
+    /**
+     * Returns a worker that has finished its task.
+     */
+    abstract void put(TiredThread worker);
+
+    abstract DispatchPolicy getPolicy();
+
+    void recordPick(long start) {
+        picks.increment();
+        pickNanos.add(System.nanoTime() - start);
+    }
+
+    long getPicks() {
+        return picks.sum();
+    }
+
+    long getPickNanos() {
+        return pickNanos.sum();
+    }
+
+    // A heap keyed on the fatigue each worker had when it went idle. The key is a snapshot, so the heap
+    // stays ordered even though a worker's live fatigue is still being updated as it gets back in.
+    private static final class LeastTired extends IdleWorkers {
+
+        private static final class Entry implements Comparable<Entry> {
+            final double fatigue;
+            final TiredThread worker;
+
+            Entry(TiredThread worker) {
+                this.fatigue = worker.getFatigue();
+                this.worker = worker;
+            }
+
+            @Override
+            public int compareTo(Entry o) {
+                return Double.compare(fatigue, o.fatigue);
+            }
+        }
+
+        private final PriorityBlockingQueue<Entry> heap = new PriorityBlockingQueue<>();
+
+        @Override
+        TiredThread take() throws InterruptedException {
+            long start = System.nanoTime();
+            Entry entry = heap.poll();
+            if (entry == null) {
+                entry = heap.take();
+                start = System.nanoTime();
+            }
+            recordPick(start);
+            return entry.worker;
+        }
+
+        @Override
+        void put(TiredThread worker) {
+            heap.add(new Entry(worker));
+        }
+
+        @Override
+        DispatchPolicy getPolicy() {
+            return DispatchPolicy.LEAST_TIRED;
+        }
+    }
+
+    // Power of two choices: look at two idle workers picked at random and take the less tired one.
+    // Idle workers are flags indexed by worker id; a worker is taken by clearing its flag, so no
+    // lock is held and the fatigue of each candidate is read once, live.
+    private static final class TwoChoices extends IdleWorkers {
+
+        private static final int PROBES = 8; // Random looks for an idle worker before scanning for one
+
+        private final TiredThread[] workers;
+        private final AtomicIntegerArray idle; // 1 while the worker with that id is idle and not taken
+        private final Semaphore available = new Semaphore(0); // Never more permits than idle flags set
+
+        TwoChoices(TiredThread[] workers) {
+            this.workers = workers;
+            this.idle = new AtomicIntegerArray(workers.length);
+        }
+
+        @Override
+        TiredThread take() throws InterruptedException {
+            available.acquire();
+            long start = System.nanoTime();
+            // The permit guarantees a flag is set that no other taker will clear
+            while (true) {
+                int first = findIdle();
+                int second = findIdle();
+                int chosen = first;
+                if (second >= 0 && (first < 0 || workers[second].getFatigue() < workers[first].getFatigue())) {
+                    chosen = second;
+                }
+                if (chosen >= 0 && idle.compareAndSet(chosen, 1, 0)) {
+                    recordPick(start);
+                    return workers[chosen];
+                }
+            }
+        }
+
+        // An idle worker's id, found in a few random looks while many are idle, or by a scan from a random start
+        private int findIdle() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int n = workers.length;
+            for (int i = 0; i < PROBES; i++) {
+                int candidate = random.nextInt(n);
+                if (idle.get(candidate) == 1) {
+                    return candidate;
+                }
+            }
+            int from = random.nextInt(n);
+            for (int i = 0; i < n; i++) {
+                int candidate = (from + i) % n;
+                if (idle.get(candidate) == 1) {
+                    return candidate;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        void put(TiredThread worker) {
+            idle.set(worker.getWorkerId(), 1);
+            available.release();
+        }
+
+        @Override
+        DispatchPolicy getPolicy() {
+            return DispatchPolicy.TWO_CHOICES;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package scheduling;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Completion handle of the tasks submitted together by one {@link TiredExecutor#submitBatch} call.
+ * Only the last of its own tasks to finish completes it, so callers wait on their own work alone and
+ * no other thread is woken.
+ * <p>
+ * If a task throws, the batch fails at once with that exception: waiters are released without waiting
+ * for the other tasks, and tasks that have not started yet are skipped. Tasks already running are left
+ * to finish. {@link #cancel()} fails the batch the same way.
+ */
+public final class TaskBatch {
+
+    private final AtomicInteger pending = new AtomicInteger(1); // Unfinished tasks, plus one until sealed
+    private final AtomicInteger skipped = new AtomicInteger(0); // Tasks never run because the batch had failed
+    private final CompletableFuture<Void> done = new CompletableFuture<>(); // The only record of success or failure
+
+    TaskBatch() {
+    }
+
+    // Called before each task is handed out
+    void add() {
+        pending.incrementAndGet();
+    }
+
+    // Called once every task has been handed out
+    void seal() {
+        arrive();
+    }
+
+    // Called by whoever ran a task, with what it threw or null
+    void taskDone(Throwable thrown) {
+        if (thrown != null) {
+            fail(thrown);
+        }
+        arrive();
+    }
+
+    // Called instead of running a task once the batch has failed
+    void taskSkipped() {
+        skipped.incrementAndGet();
+        arrive();
+    }
+
+    // Loses to whichever of completion or an earlier failure came first
+    private boolean fail(Throwable cause) {
+        return done.completeExceptionally(cause);
+    }
+
+    private void arrive() {
+        if (pending.decrementAndGet() == 0) {
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Fails the batch with a CancellationException, so its tasks that have not started are skipped.
+     * Returns false if it had already finished or failed.
+     */
+    public boolean cancel() {
+        return fail(new CancellationException("Batch cancelled"));
+    }
+
+    public boolean isFailed() {
+        return done.isCompletedExceptionally();
+    }
+
+    /**
+     * Tasks skipped because the batch had failed before they started.
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * True once every task has run, or as soon as the batch has failed.
+     */
+    public boolean isDone() {
+        return done.isDone();
+    }
+
+    /**
+     * The first exception one of the tasks threw, or null.
+     */
+    public Throwable getFailure() {
+        if (!done.isCompletedExceptionally()) {
+            return null;
+        }
+        try{
+            done.join();
+            return null;
+        }
+        catch(CancellationException e){
+            return e;
+        }
+        catch(CompletionException e){
+            return e.getCause() != null ? e.getCause() : e;
+        }
+    }
+
+    /**
+     * A future completed with the batch, for chaining work onto it without a waiting thread.
+     * Non-async continuations run on the thread that completes the batch, usually a worker, so they should be short.
+     */
+    public CompletableFuture<Void> future() {
+        return done.copy();
+    }
+
+    /**
+     * Waits for every task of the batch, or until one of them throws, and then rethrows that exception:
+     * as is if it is unchecked, wrapped in a CompletionException otherwise.
+     * If the waiting thread is interrupted, its flag is set again and a CancellationException is thrown.
+     */
+    public void await() {
+        try{
+            done.get();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a batch");
+        }
+        catch(ExecutionException e){
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+}
@@ -1,63 +1,250 @@
 package scheduling;
 
-import java.util.concurrent.PriorityBlockingQueue;
-//import java.util.ArrayList; # I got angry because of the yellow comments :(
-//import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.Metrics;
 
 public class TiredExecutor {
 
     private final TiredThread[] workers;
-    private final PriorityBlockingQueue<TiredThread> idleMinHeap = new PriorityBlockingQueue<>();
-    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final ExecutionMode mode;
+    private final IdleWorkers idle; // Handoff mode only
+
+    // Work-stealing mode only
+    private final AtomicInteger nextDeque = new AtomicInteger(0); // Round-robin cursor over the workers' deques
+    private final AtomicLong submitterTimeUsed = new AtomicLong(0); // Time submitting threads spent running tasks
+
+    private volatile Metrics metrics = null; // Null while nothing is measured
 
     public TiredExecutor(int numThreads) {
+        this(numThreads, ExecutionMode.HANDOFF);
+    }
+
+    public TiredExecutor(int numThreads, ExecutionMode mode) {
+        this(numThreads, mode, DispatchPolicy.LEAST_TIRED);
+    }
+
+    /**
+     * {@code policy} only matters in HANDOFF mode; see {@link DispatchPolicy}.
+     */
+    public TiredExecutor(int numThreads, ExecutionMode mode, DispatchPolicy policy) {
+        this.mode = mode;
         workers = new TiredThread[numThreads];
+        this.idle = mode == ExecutionMode.HANDOFF ? IdleWorkers.create(policy, workers) : null;
         for(int i = 0 ; i < numThreads ; i++) {
             double f = Math.random()+0.5;
             TiredThread worker = new TiredThread(i,f);
             workers[i] = worker;
-            idleMinHeap.add(worker);
+        }
+        for (TiredThread worker : workers) {
+            if (mode == ExecutionMode.WORK_STEALING) {
+                worker.enableStealing(workers);
+            }
+            else {
+                idle.put(worker);
+            }
             worker.start();
         }
     }
 
-    public void submit(Runnable task) {
+    /**
+     * Starts recording queue wait, handoff latency and worker utilization into {@code metrics}; null stops it.
+     */
+    public void setMetrics(Metrics metrics) {
+        if (metrics != null) {
+            metrics.registerWorkers(workers.length);
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Hands one task to a worker and returns without waiting for it to run.
+     */
+    public TaskBatch submit(Runnable task) {
+        return submitBatch(java.util.List.of(task));
+    }
+
+    /**
+     * Hands every task to a worker and returns a handle that completes once all of them have run.
+     * In handoff mode this blocks while every worker is busy, since a task is only ever given to an idle one.
+     * Once a task has failed, the ones not handed out yet are skipped.
+     */
+    public TaskBatch submitBatch(Iterable<Runnable> tasks) {
+        TaskBatch batch = new TaskBatch();
+        for (Runnable task : tasks) {
+            batch.add();
+            if (batch.isFailed()) {
+                batch.taskSkipped();
+                continue;
+            }
+            dispatch(task, batch);
+        }
+        batch.seal();
+        return batch;
+    }
+
+    /**
+     * Runs every task and returns once all of them have. If one throws, its siblings that have not started
+     * are skipped and its exception is rethrown right away, while tasks already running finish on their own.
+     */
+    public void submitAll(Iterable<Runnable> tasks) {
+        TaskBatch batch = submitBatch(tasks);
+        if (mode == ExecutionMode.WORK_STEALING) {
+            helpUntilDone(batch);
+        }
+        batch.await();
+    }
+
+    private void dispatch(Runnable task, TaskBatch batch) {
+        Metrics m = metrics;
+        long submitted = m == null ? 0 : System.nanoTime();
+        if (mode == ExecutionMode.WORK_STEALING) {
+            push(task, batch, m, submitted);
+            return;
+        }
         try{
-            TiredThread tired = idleMinHeap.take();
-            inFlight.incrementAndGet();
-            tired.newTask(() -> {
-                try{
-                    task.run();
-                }
-                finally{
-                    inFlight.decrementAndGet();
-                    idleMinHeap.add(tired);
-                    synchronized(this) { this.notifyAll(); }
-                }
-            });
+            TiredThread tired = idle.take();
+            long handedOff = m == null ? 0 : System.nanoTime();
+            tired.newTask(new BatchTask(batch, task, m, submitted, handedOff, tired));
         }
-        catch(Exception e){
+        catch(InterruptedException e){
             Thread.currentThread().interrupt();
+            batch.taskDone(e);
+        }
+        catch(RuntimeException e){
+            batch.taskDone(e);
         }
     }
 
-    public void submitAll(Iterable<Runnable> tasks) {
-        for (Runnable runnable : tasks) {
-            submit(runnable);
-        }
-        synchronized (this) {
-            while (inFlight.get() > 0) {
-                try {
-                    this.wait(); 
-                } catch (Exception e) {
-                    Thread.currentThread().interrupt();
+    // Work-stealing mode: spread tasks over the deques round-robin, then make sure someone is awake to run them
+    // A task waits in a deque from the moment it is pushed, so its handoff latency is its whole queue wait
+    private void push(Runnable task, TaskBatch batch, Metrics m, long submitted) {
+        Runnable wrapped = new BatchTask(batch, task, m, submitted, submitted, null);
+        if (workers.length == 0) {
+            wrapped.run();
+            return;
+        }
+        TiredThread target = workers[Math.floorMod(nextDeque.getAndIncrement(), workers.length)];
+        try{
+            target.push(wrapped);
+        }
+        catch(IllegalStateException e){
+            batch.taskDone(new RejectedExecutionException("Executor shut down before the task ran"));
+            return;
+        }
+        if (!target.wake()) {
+            for (TiredThread worker : workers) {
+                if (worker.wake()) {
                     break;
                 }
             }
         }
     }
 
+    // Runs a task, recording when it started and how long it ran if metrics are on. Returns what it threw, or null.
+    private static Throwable runMeasured(Runnable task, Metrics m, long submitted, long handedOff) {
+        long start = 0;
+        if (m != null) {
+            start = System.nanoTime();
+            m.recordDispatch(start - submitted, start - handedOff);
+        }
+        try{
+            task.run();
+            return null;
+        }
+        catch(Throwable t){
+            return t;
+        }
+        finally{
+            if (m != null) {
+                Thread current = Thread.currentThread();
+                m.recordTask(current instanceof TiredThread ? ((TiredThread) current).getWorkerId() : -1, start, System.nanoTime());
+            }
+        }
+    }
+
+    // A task on its way to a worker, and the batch it belongs to. A worker calls execute(), books the
+    // time it took, and only then complete(), so its fatigue is up to date by the time anyone waiting
+    // on the batch looks at it, or it is back among the idle.
+    final class BatchTask implements Runnable {
+        final TaskBatch batch;
+        private final Runnable task;
+        private final Metrics m;
+        private final long submitted;
+        private final long handedOff;
+        private final TiredThread handoffWorker; // Handoff mode: the worker to put back among the idle
+        private boolean skipped = false;
+        private Throwable failure = null;
+
+        BatchTask(TaskBatch batch, Runnable task, Metrics m, long submitted, long handedOff, TiredThread handoffWorker) {
+            this.batch = batch;
+            this.task = task;
+            this.m = m;
+            this.submitted = submitted;
+            this.handedOff = handedOff;
+            this.handoffWorker = handoffWorker;
+        }
+
+        // Runs the task unless the batch has already failed; never throws
+        void execute() {
+            skipped = batch.isFailed();
+            if (!skipped) {
+                failure = runMeasured(task, m, submitted, handedOff);
+            }
+        }
+
+        void complete() {
+            if (handoffWorker != null) {
+                // Back among the idle first, so whoever the batch wakes can use this worker at once
+                idle.put(handoffWorker);
+            }
+            if (skipped) {
+                batch.taskSkipped();
+            }
+            else {
+                batch.taskDone(failure);
+            }
+        }
+
+        // Never going to run: fails the batch with the reason instead
+        void reject(Throwable reason) {
+            batch.taskDone(reason);
+        }
+
+        @Override
+        public void run() {
+            execute();
+            complete();
+        }
+    }
+
+    // Work-stealing mode: the submitting thread runs queued tasks of its own batch until it is done.
+    // Other callers' tasks are left alone, so it never ends up waiting on work that is not its own.
+    private void helpUntilDone(TaskBatch batch) {
+        while (!batch.isDone()) {
+            Runnable task = null;
+            for (int i = 0; i < workers.length && task == null; i++) {
+                task = workers[i].steal(batch);
+            }
+            if (task == null) {
+                return; // Everything left is running on a worker, or queued behind other work
+            }
+            long start = System.nanoTime();
+            task.run(); // Wrapped by push, so it never throws
+            submitterTimeUsed.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    public int getNumThreads() {
+        return workers.length;
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
     public void shutdown() throws InterruptedException {
         for (TiredThread tiredThread : workers) {
             tiredThread.shutdown();
@@ -65,9 +252,15 @@ public class TiredExecutor {
         for (TiredThread worker : workers) {
             worker.join(); 
         }
+        if (mode == ExecutionMode.WORK_STEALING) {
+            // Pushed while the workers were stopping
+            for (TiredThread worker : workers) {
+                worker.rejectQueued();
+            }
+        }
     }
 
-    public synchronized String getWorkerReport() {
+    public String getWorkerReport() {
         StringBuilder sb = new StringBuilder();
         for (TiredThread worker : workers) {
             sb.append(String.format("Worker %d: Fatigue=%.2f, TimeUsed=%d ns, TimeIdle=%d ns\n",
@@ -76,6 +269,9 @@ public class TiredExecutor {
                     worker.getTimeUsed(), 
                     worker.getTimeIdle()));
         }
+        if (mode == ExecutionMode.WORK_STEALING) {
+            sb.append(String.format("Submitting threads: TimeUsed=%d ns\n", submitterTimeUsed.get()));
+        }
         sb.append(getFairnessReport());
         return sb.toString();
     }
@@ -95,6 +291,13 @@ public class TiredExecutor {
             sum += deviation * deviation;
         }
 
-        return String.format("Average Fatigue: %.2f, Fairness Score (Lower is better): %.4f\n", averageFatigue, sum);
+        String report = String.format("Average Fatigue: %.2f, Fairness Score (Lower is better): %.4f\n", averageFatigue, sum);
+        if (idle != null) {
+            // What the fairness above cost: time spent choosing among idle workers, per task
+            long picks = idle.getPicks();
+            report += String.format("Dispatch: Policy=%s, Picks=%d, AvgPickTime=%.1f ns\n",
+                    idle.getPolicy(), picks, picks == 0 ? 0.0 : (double) idle.getPickNanos() / picks);
+        }
+        return report;
     }
 }
@@ -1,11 +1,15 @@
 package scheduling;
 
+import java.util.Deque;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
-public class TiredThread extends Thread implements Comparable<TiredThread> {
+public class TiredThread extends Thread {
 
     private static final Runnable POISON_PILL = () -> {}; // Special task to signal shutdown
 
@@ -17,6 +21,11 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     // Single-slot handoff queue; executor will put tasks here
     private final BlockingQueue<Runnable> handoff = new ArrayBlockingQueue<>(1);
 
+    // Work-stealing mode only: this worker's own deque, and every worker's (including this one) to steal from
+    private final Deque<Runnable> deque = new ConcurrentLinkedDeque<>();
+    private volatile TiredThread[] peers = null;
+    private final AtomicBoolean parked = new AtomicBoolean(false); // Set while the worker is about to sleep for lack of work
+
     private final AtomicBoolean busy = new AtomicBoolean(false); // Indicates if the worker is currently executing a task
 
     private final AtomicLong timeUsed = new AtomicLong(0); // Total time spent executing tasks
@@ -66,16 +75,84 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
         }
     }
 
+    /**
+     * Switch this worker to work-stealing mode. Must be called before the thread is started.
+     * {@code peers} are all the executor's workers; this one is expected to be among them.
+     */
+    void enableStealing(TiredThread[] peers) {
+        this.peers = peers;
+    }
+
+    /**
+     * Work-stealing mode: push a task onto this worker's deque. Never blocks.
+     * Throws IllegalStateException if the worker has been shut down and the task was not queued.
+     */
+    void push(Runnable task) {
+        if(!alive.get())
+            throw new IllegalStateException("Worker is dead and cannot accept tasks");
+        deque.offerLast(task);
+        // Shut down meanwhile: take the task back unless the final drain already rejected it
+        if (!alive.get() && deque.removeLastOccurrence(task))
+            throw new IllegalStateException("Worker is dead and cannot accept tasks");
+    }
+
+    /**
+     * Work-stealing mode: wake this worker if it is sleeping for lack of work.
+     * Returns false if it was awake already.
+     */
+    boolean wake() {
+        if (parked.compareAndSet(true, false)) {
+            LockSupport.unpark(this);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Work-stealing mode: take a task from the cold end of this worker's deque, or null if it is empty.
+     */
+    Runnable steal() {
+        return deque.pollLast();
+    }
+
+    /**
+     * Work-stealing mode: like {@link #steal()}, but only takes the task at the cold end if it belongs to {@code batch}.
+     */
+    Runnable steal(TaskBatch batch) {
+        Runnable task = deque.peekLast();
+        if (task instanceof TiredExecutor.BatchTask && ((TiredExecutor.BatchTask) task).batch == batch
+                && deque.removeLastOccurrence(task)) {
+            return task;
+        }
+        return null;
+    }
+
     /**
      * Request this worker to stop after finishing current task.
-     * Inserts a poison pill so the worker wakes up and exits.
+     * Inserts a poison pill so the worker wakes up and exits, waiting for a task
+     * still sitting in the handoff slot to be taken first.
+     * In work-stealing mode, tasks left in the deque fail their batches with a RejectedExecutionException.
      */
     public void shutdown() {
-        newTask(POISON_PILL);
+        if (peers != null) {
+            alive.set(false);
+            LockSupport.unpark(this);
+            return;
+        }
+        try{
+            handoff.put(POISON_PILL);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
     public void run() {
+        if (peers != null) {
+            runStealing();
+            return;
+        }
         while(alive.get()){
             try{
                 Runnable curr = handoff.take();
@@ -83,21 +160,7 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
                     alive.set(false);
                     break;
                 }
-                long now = System.nanoTime();
-                long idleDur = now - idleStartTime.get();
-                timeIdle.addAndGet(idleDur);
-                busy.set(true);
-                long startWork = System.nanoTime();
-                try{
-                    curr.run();
-                }
-                catch(Exception e){
-                }
-
-                long workDur = System.nanoTime() - startWork;
-                timeUsed.addAndGet(workDur);
-                busy.set(false);
-                idleStartTime.set(System.nanoTime());
+                runTask(curr);
             }
             catch(Exception e){
                 break;
@@ -105,8 +168,82 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
         }
     }
 
-    @Override
-    public int compareTo(TiredThread o) {
-        return Double.compare(this.getFatigue(), o.getFatigue());
+    private void runStealing() {
+        while(alive.get()){
+            Runnable curr = deque.pollFirst();
+            if (curr == null) {
+                curr = stealFromPeers();
+            }
+            if (curr != null) {
+                runTask(curr);
+                continue;
+            }
+            // Announce the sleep before the last look, so a push either sees the flag or we see its task
+            parked.set(true);
+            curr = stealFromPeers();
+            if (curr != null) {
+                parked.set(false);
+                runTask(curr);
+                continue;
+            }
+            if (alive.get()) {
+                LockSupport.parkNanos(this, 10_000_000L);
+            }
+            parked.set(false);
+        }
+        rejectQueued();
+    }
+
+    /**
+     * Work-stealing mode: fails the batch of every task still in this worker's deque, so nobody waits on them.
+     */
+    void rejectQueued() {
+        Runnable task;
+        while ((task = deque.pollFirst()) != null) {
+            if (task instanceof TiredExecutor.BatchTask) {
+                ((TiredExecutor.BatchTask) task).reject(new RejectedExecutionException("Executor shut down before the task ran"));
+            }
+        }
+    }
+
+    // Scans the other deques starting from our right-hand neighbour, so thieves spread out
+    private Runnable stealFromPeers() {
+        TiredThread[] all = peers;
+        for (int i = 1; i <= all.length; i++) {
+            Runnable task = all[(id + i) % all.length].steal();
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private void runTask(Runnable curr) {
+        long now = System.nanoTime();
+        long idleDur = now - idleStartTime.get();
+        timeIdle.addAndGet(idleDur);
+        busy.set(true);
+        TiredExecutor.BatchTask batchTask = curr instanceof TiredExecutor.BatchTask ? (TiredExecutor.BatchTask) curr : null;
+        long startWork = System.nanoTime();
+        try{
+            if (batchTask != null) {
+                batchTask.execute();
+            }
+            else {
+                curr.run();
+            }
+        }
+        catch(Throwable t){
+            // Executor tasks hand their failures to their batch; anything else still gets reported
+            getUncaughtExceptionHandler().uncaughtException(this, t);
+        }
+
+        long workDur = System.nanoTime() - startWork;
+        timeUsed.addAndGet(workDur);
+        busy.set(false);
+        idleStartTime.set(System.nanoTime());
+        if (batchTask != null) {
+            batchTask.complete();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,377 @@
+package spl.lae;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import memory.SharedMatrix;
+import metrics.Metrics;
+import parser.*;
+import scheduling.DispatchPolicy;
+import scheduling.ExecutionMode;
+
+/**
+ * Evaluates many input files on one engine as a three-stage pipeline: a reader thread parses the
+ * next files while the engine computes the current one and a writer thread writes the previous results.
+ * Bounded queues between the stages keep at most a few parsed trees and results in memory.
+ * <p>
+ * Every input gets an output at the same path relative to the output directory, with a
+ * {@code .json} extension (or {@value BinaryMatrixIO#EXTENSION} for binary output). A file that fails
+ * gets the same error document Main would write, always as JSON.
+ */
+public class BatchRunner {
+
+    private final LinearAlgebraEngine engine;
+    private final int depth; // items waiting between two stages
+    private final boolean compact;
+    private final boolean binary;
+    private final InputParser parser = new InputParser();
+    private final AtomicInteger succeeded = new AtomicInteger(0);
+    private final AtomicInteger failed = new AtomicInteger(0);
+
+    // One file on its way through the pipeline
+    private static final class Item {
+        final Path input;
+        Path output; // null if no output path could be made for the input
+        ComputationNode root;
+        SharedMatrix result;
+        String error;
+
+        Item(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    private static final Item END = new Item(null, null);
+
+    public BatchRunner(LinearAlgebraEngine engine, int depth, boolean compact, boolean binary) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("The pipeline needs room for at least one file between stages");
+        }
+        this.engine = engine;
+        this.depth = depth;
+        this.compact = compact;
+        this.binary = binary;
+    }
+
+    /**
+     * Lets mostly-zero input matrices become sparse; see {@link InputParser#setAutoSparse(boolean)}.
+     */
+    public void setAutoSparse(boolean autoSparse) {
+        parser.setAutoSparse(autoSparse);
+    }
+
+    /**
+     * The directory a pattern's matches are taken relative to: the pattern itself if it has no
+     * wildcards and names a directory, its parent if it names a file, otherwise its longest leading
+     * part without wildcards.
+     */
+    public static Path baseDirectory(String pattern) {
+        Path path = Paths.get(pattern);
+        if (!isGlob(pattern)) {
+            Path parent = path.getParent();
+            return Files.isDirectory(path) ? path : (parent != null ? parent : Paths.get(""));
+        }
+        Path base = path.isAbsolute() ? path.getRoot() : Paths.get("");
+        for (Path part : path) {
+            if (isGlob(part.toString())) {
+                break;
+            }
+            base = base.resolve(part);
+        }
+        return base;
+    }
+
+    /**
+     * The input files a pattern stands for, sorted: every .json and {@value BinaryMatrixIO#EXTENSION}
+     * file directly in a directory, a single file, or the files matching a glob such as
+     * {@code inputs/*.json}, where {@code **} also matches across directories.
+     */
+    public static List<Path> listInputs(String pattern) throws IOException {
+        Path base = baseDirectory(pattern);
+        Path path = Paths.get(pattern);
+        PathMatcher matcher;
+        int maxDepth;
+        if (!isGlob(pattern)) {
+            if (!Files.isDirectory(path)) {
+                return List.of(path);
+            }
+            matcher = FileSystems.getDefault().getPathMatcher("glob:*.{json," + BinaryMatrixIO.EXTENSION.substring(1) + "}");
+            maxDepth = 1;
+        }
+        else {
+            Path relative = base.relativize(path);
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + relative);
+            maxDepth = relative.toString().contains("**") ? Integer.MAX_VALUE : relative.getNameCount();
+        }
+        try (Stream<Path> files = Files.walk(base, maxDepth)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(base.relativize(file)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static boolean isGlob(String pattern) {
+        for (char c : new char[]{'*', '?', '[', '{'}) {
+            if (pattern.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Evaluates every input, writing its result under {@code outputDirectory} at its path relative to {@code base}.
+     * Returns once every result has been written; the number of failed files is returned.
+     * A file that fails only fails itself, but if the reader or writer thread dies anyway (say with an
+     * Error), the run stops and an IllegalStateException with that cause is thrown.
+     */
+    public int run(List<Path> inputs, Path base, Path outputDirectory) throws InterruptedException {
+        BlockingQueue<Item> parsed = new ArrayBlockingQueue<>(depth);
+        BlockingQueue<Item> computed = new ArrayBlockingQueue<>(depth);
+        Thread reader = new Thread(() -> parseAll(inputs, base, outputDirectory, parsed), "lae-batch-parse");
+        Thread writer = new Thread(() -> writeAll(computed), "lae-batch-write");
+        // A dead stage would leave this thread waiting on its queue forever, so it is woken up instead
+        AtomicReference<IllegalStateException> stageFailure = new AtomicReference<>();
+        Thread caller = Thread.currentThread();
+        Thread.UncaughtExceptionHandler failRun = (thread, e) -> {
+            stageFailure.compareAndSet(null, new IllegalStateException("Batch stage " + thread.getName() + " died", e));
+            caller.interrupt();
+        };
+        for (Thread stage : new Thread[]{reader, writer}) {
+            stage.setDaemon(true);
+            stage.setUncaughtExceptionHandler(failRun);
+            stage.start();
+        }
+
+        try{
+            Item item;
+            while ((item = parsed.take()) != END) {
+                if (item.error == null) {
+                    try{
+                        item.result = engine.run(item.root).getSharedMatrix();
+                    }
+                    catch(Exception e){
+                        item.error = "Runtime error: " + e.getMessage();
+                    }
+                    item.root = null;
+                }
+                computed.put(item);
+            }
+            computed.put(END);
+            writer.join();
+            reader.join();
+        }
+        catch(InterruptedException e){
+            reader.interrupt();
+            writer.interrupt();
+            if (stageFailure.get() == null) {
+                throw e;
+            }
+        }
+        IllegalStateException failure = stageFailure.get();
+        if (failure != null) {
+            Thread.interrupted(); // Set by failRun, not by whoever called run
+            throw failure;
+        }
+        return failed.get();
+    }
+
+    public int getSucceeded() {
+        return succeeded.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    private void parseAll(List<Path> inputs, Path base, Path outputDirectory, BlockingQueue<Item> parsed) {
+        try{
+            for (Path input : inputs) {
+                Item item = new Item(input, null);
+                try{
+                    item.output = outputPath(input, base, outputDirectory);
+                    if (sameFile(item.output, input) || sameFile(errorPath(item.output), input)) {
+                        throw new IllegalArgumentException("The output would overwrite its input " + input);
+                    }
+                    long start = System.nanoTime();
+                    item.root = parser.parse(input.toString());
+                    Metrics metrics = engine.getMetrics();
+                    if (metrics != null) {
+                        metrics.recordParse(start, System.nanoTime());
+                    }
+                }
+                catch(ParseException e){
+                    item.error = "Parse error: " + e.getMessage();
+                }
+                catch(RuntimeException e){
+                    item.error = "Runtime error: " + e.getMessage();
+                }
+                parsed.put(item);
+            }
+            parsed.put(END);
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeAll(BlockingQueue<Item> computed) {
+        try{
+            Item item;
+            while ((item = computed.take()) != END) {
+                if (item.output == null) {
+                    System.err.println(item.input + ": " + item.error);
+                    failed.incrementAndGet();
+                    continue;
+                }
+                try{
+                    Files.createDirectories(item.output.toAbsolutePath().getParent());
+                    if (item.error != null) {
+                        System.err.println(item.input + ": " + item.error);
+                        Path errorOutput = errorPath(item.output);
+                        if (!sameFile(errorOutput, item.input)) {
+                            OutputWriter.write(item.error, errorOutput.toString());
+                        }
+                        failed.incrementAndGet();
+                    }
+                    else {
+                        long start = System.nanoTime();
+                        if (binary) {
+                            BinaryMatrixIO.write(item.result, item.output);
+                        }
+                        else {
+                            OutputWriter.write(item.result, item.output.toString(), compact);
+                        }
+                        Metrics metrics = engine.getMetrics();
+                        if (metrics != null) {
+                            metrics.recordWrite(start, System.nanoTime());
+                        }
+                        succeeded.incrementAndGet();
+                    }
+                }
+                catch(IOException | RuntimeException e){
+                    System.err.println(item.input + ": could not write " + item.output + ": " + e.getMessage());
+                    failed.incrementAndGet();
+                }
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path outputPath(Path input, Path base, Path outputDirectory) {
+        Path relative = base.relativize(input);
+        String name = relative.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        return outputDirectory.resolve(relative).resolveSibling(stem + (binary ? BinaryMatrixIO.EXTENSION : ".json"));
+    }
+
+    private static boolean sameFile(Path a, Path b) {
+        return a.toAbsolutePath().normalize().equals(b.toAbsolutePath().normalize());
+    }
+
+    private static Path errorPath(Path output) {
+        String name = output.getFileName().toString();
+        return name.endsWith(".json") ? output : output.resolveSibling(name.substring(0, name.lastIndexOf('.')) + ".json");
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+      if (args.length < 3) {
+        System.out.println("Usage: java -cp LAE.jar spl.lae.BatchRunner <num_threads> <input_dir_or_glob> <output_dir> [--work-stealing] [--dispatch <least-tired|two-choices>] [--compact] [--binary] [--park] [--sparse] [--depth <n>] [--cache-mb <n>] [--metrics <file.json|file.prom>] [--trace <file>]");
+        return;
+      }
+
+      int numThreads = Integer.parseInt(args[0]);
+      String inputPattern = args[1];
+      Path outputDirectory = Paths.get(args[2]);
+      ExecutionMode mode = ExecutionMode.HANDOFF;
+      DispatchPolicy policy = DispatchPolicy.LEAST_TIRED;
+      boolean compact = false;
+      boolean binary = false;
+      boolean parking = false;
+      boolean sparse = false;
+      long cacheBytes = 0;
+      int depth = 2;
+      String metricsPath = null;
+      String tracePath = null;
+      for (int i = 3; i < args.length; i++) {
+        if (args[i].equals("--work-stealing")) {
+          mode = ExecutionMode.WORK_STEALING;
+        }
+        else if (args[i].equals("--dispatch") && i + 1 < args.length) {
+          policy = DispatchPolicy.valueOf(args[++i].toUpperCase().replace('-', '_'));
+        }
+        else if (args[i].equals("--compact")) {
+          compact = true;
+        }
+        else if (args[i].equals("--binary")) {
+          binary = true;
+        }
+        else if (args[i].equals("--park")) {
+          parking = true;
+        }
+        else if (args[i].equals("--sparse")) {
+          sparse = true;
+        }
+        else if (args[i].equals("--cache-mb") && i + 1 < args.length) {
+          cacheBytes = Long.parseLong(args[++i]) << 20;
+        }
+        else if (args[i].equals("--depth") && i + 1 < args.length) {
+          depth = Integer.parseInt(args[++i]);
+        }
+        else if (args[i].equals("--metrics") && i + 1 < args.length) {
+          metricsPath = args[++i];
+        }
+        else if (args[i].equals("--trace") && i + 1 < args.length) {
+          tracePath = args[++i];
+        }
+      }
+      Metrics metrics = metricsPath != null || tracePath != null ? new Metrics() : null;
+      if (tracePath != null) {
+        metrics.enableTrace(Metrics.DEFAULT_TRACE_EVENTS);
+      }
+
+      List<Path> inputs = listInputs(inputPattern);
+      long start = System.nanoTime();
+      try (LinearAlgebraEngine engine = new LinearAlgebraEngine(numThreads, mode, policy)) {
+        engine.setParking(parking);
+        if (cacheBytes > 0) {
+          engine.setResultCache(new ResultCache(cacheBytes));
+        }
+        engine.setMetrics(metrics);
+        BatchRunner runner = new BatchRunner(engine, depth, compact, binary);
+        runner.setAutoSparse(sparse);
+        runner.run(inputs, baseDirectory(inputPattern), outputDirectory);
+
+        System.out.println("Batch completed: " + inputs.size() + " files, " + runner.getSucceeded() + " succeeded, "
+            + runner.getFailed() + " failed, in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+        System.out.println("--- Worker Activity Report ---");
+        System.out.println(engine.getWorkerReport());
+        if (engine.getResultCache() != null) {
+          System.out.println(engine.getResultCache());
+        }
+        if (metricsPath != null) {
+          metrics.export(Paths.get(metricsPath));
+        }
+        if (tracePath != null) {
+          metrics.writeTrace(Paths.get(tracePath));
+        }
+      }
+    }
+}
@@ -0,0 +1,508 @@
+package spl.lae;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import memory.SharedMatrix;
+import metrics.Metrics;
+import parser.*;
+import scheduling.DispatchPolicy;
+import scheduling.ExecutionMode;
+
+/**
+ * Keeps one warm engine and evaluates jobs sent as newline-delimited JSON, on stdin/stdout or on a
+ * local TCP or Unix-domain socket, so a job no longer pays for starting a JVM.
+ * <p>
+ * Every request is one line: {@code {"id": ..., "expression": <tree>}} with the tree written as in an
+ * input file, or {@code {"id": ..., "input": "<path>"}} naming a JSON or binary input file. With
+ * {@code "output": "<path>"} the result goes to that file (binary if it ends in
+ * {@value BinaryMatrixIO#EXTENSION}, {@code "compact": true} for compact JSON) instead of into the response.
+ * Every request gets one response line carrying its id:
+ * {@code {"id":...,"result":[[...]]}}, {@code {"id":...,"output":"<path>"}} or {@code {"id":...,"error":"..."}}.
+ * A request without an id, or too malformed to read it, is answered with its line number.
+ * <p>
+ * Requests are read ahead while earlier ones run, up to {@code maxJobs} per connection at once.
+ * Responses are written as jobs finish, so with more than one job in flight they can come back out of order.
+ * <p>
+ * Every path a request names, {@code "input"}, {@code "output"} and {@code "file"} leaves alike, must be
+ * relative to the server's root directory and stay inside it: absolute paths and ".." are refused.
+ * A socket server serves at most {@code maxConnections} connections at once; the next one is only
+ * accepted when one of them ends, and a connection's next request is only read when one of its jobs ends.
+ */
+public class JobServer implements AutoCloseable {
+
+    public static final int DEFAULT_CONNECTIONS = 16;
+
+    private final LinearAlgebraEngine engine;
+    private final int maxJobs; // jobs of one connection running at the same time
+    private final Semaphore connectionSlots; // connections served at the same time
+    private final ExecutorService connections;
+    private final ExecutorService runners;
+    private final InputParser parser = new InputParser();
+    private final JsonFactory factory = new JsonFactory();
+    private final Path rootDirectory; // every path in a request is resolved inside it
+
+    // What one request line asks for
+    private static final class Request {
+        String id; // already JSON: a number or a quoted string
+        ComputationNode expression;
+        Path input;
+        String output; // as the request wrote it, for the response
+        Path outputPath;
+        boolean compact = false;
+
+        Request(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Serves jobs on {@code engine}, which stays owned by the caller, with paths resolved inside the
+     * working directory and at most {@value #DEFAULT_CONNECTIONS} connections at once.
+     */
+    public JobServer(LinearAlgebraEngine engine, int maxJobs) {
+        this(engine, maxJobs, DEFAULT_CONNECTIONS, Paths.get(""));
+    }
+
+    /**
+     * Serves jobs on {@code engine} with at most {@code maxConnections} sockets served at once, each with
+     * at most {@code maxJobs} jobs in flight, and every path in a request resolved inside {@code root}.
+     */
+    public JobServer(LinearAlgebraEngine engine, int maxJobs, int maxConnections, Path root) {
+        if (maxJobs < 1) {
+            throw new IllegalArgumentException("At least one job must be allowed in flight");
+        }
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("At least one connection must be allowed");
+        }
+        if (!Files.isDirectory(root)) {
+            throw new IllegalArgumentException("The root is not a directory: " + root);
+        }
+        this.engine = engine;
+        this.maxJobs = maxJobs;
+        this.rootDirectory = root.toAbsolutePath().normalize();
+        this.connectionSlots = new Semaphore(maxConnections);
+        // The semaphores bound what is submitted, so the queues never hold more than the pools have threads
+        this.connections = boundedPool(maxConnections, "lae-connection-");
+        this.runners = boundedPool(maxConnections * maxJobs, "lae-job-");
+        parser.setFileRoot(rootDirectory);
+    }
+
+    // Up to {@code threads} daemon threads, started on demand and stopped after a minute without work
+    private static ExecutorService boundedPool(int threads, String name) {
+        AtomicInteger created = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, name + created.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Lets mostly-zero input matrices become sparse; see {@link InputParser#setAutoSparse(boolean)}.
+     */
+    public void setAutoSparse(boolean autoSparse) {
+        parser.setAutoSparse(autoSparse);
+    }
+
+    /**
+     * Runs every request read from {@code requests} and answers on {@code responses}.
+     * Returns once the stream has ended and every job from it has been answered.
+     */
+    public void serve(InputStream requests, WritableByteChannel responses) throws IOException, InterruptedException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(requests, StandardCharsets.UTF_8));
+        Semaphore slots = new Semaphore(maxJobs);
+        long lineNumber = 0;
+        try{
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                slots.acquire();
+                final String request = line;
+                final long number = lineNumber;
+                try{
+                    runners.execute(() -> {
+                        try{
+                            runJob(request, number, responses);
+                        }
+                        finally{
+                            slots.release();
+                        }
+                    });
+                }
+                catch(RejectedExecutionException e){
+                    slots.release();
+                    throw e;
+                }
+            }
+        }
+        finally{
+            slots.acquire(maxJobs);
+        }
+    }
+
+    /**
+     * Accepts connections until {@code server} is closed, serving each one on a pooled thread.
+     * While every connection slot is taken, nothing is accepted and new clients wait in the listen backlog.
+     */
+    public void serve(ServerSocketChannel server) throws IOException, InterruptedException {
+        while (true) {
+            connectionSlots.acquire();
+            SocketChannel connection;
+            try{
+                connection = server.accept();
+            }
+            catch(ClosedChannelException e){
+                connectionSlots.release();
+                return;
+            }
+            catch(IOException e){
+                connectionSlots.release();
+                throw e;
+            }
+            try{
+                connections.execute(() -> {
+                    try{
+                        serveConnection(connection);
+                    }
+                    finally{
+                        connectionSlots.release();
+                    }
+                });
+            }
+            catch(RejectedExecutionException e){
+                connectionSlots.release();
+                connection.close();
+                throw e;
+            }
+        }
+    }
+
+    private void serveConnection(SocketChannel connection) {
+        try (connection) {
+            serve(Channels.newInputStream(connection), connection);
+        }
+        catch(IOException e){
+            System.err.println("Connection closed: " + e.getMessage());
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops taking jobs; the engine is left open.
+     */
+    @Override
+    public void close() {
+        connections.shutdown();
+        runners.shutdown();
+    }
+
+    private void runJob(String line, long lineNumber, WritableByteChannel responses) {
+        Request request = new Request(Long.toString(lineNumber));
+        Metrics metrics = engine.getMetrics();
+        SharedMatrix result = null;
+        String response = null;
+        try{
+            long start = System.nanoTime();
+            readRequest(line, request);
+            ComputationNode root = request.expression != null ? request.expression : parser.parse(request.input.toString());
+            if (metrics != null) {
+                metrics.recordParse(start, System.nanoTime());
+            }
+            root = engine.run(root, new JobStats());
+            if (request.output == null) {
+                result = root.getSharedMatrix();
+            }
+            else {
+                start = System.nanoTime();
+                if (BinaryMatrixIO.isBinaryPath(request.output)) {
+                    BinaryMatrixIO.write(root.getSharedMatrix(), request.outputPath);
+                }
+                else {
+                    OutputWriter.write(root.getSharedMatrix(), request.outputPath.toString(), request.compact);
+                }
+                if (metrics != null) {
+                    metrics.recordWrite(start, System.nanoTime());
+                }
+                response = "{\"id\":" + request.id + ",\"output\":" + quote(request.output) + "}";
+            }
+        }
+        catch(ParseException e){
+            response = error(request.id, "Parse error: " + e.getMessage());
+        }
+        catch(Exception e){
+            response = error(request.id, "Runtime error: " + e.getMessage());
+        }
+
+        try{
+            synchronized (responses) {
+                if (result != null) {
+                    long start = System.nanoTime();
+                    OutputWriter.writeLine(result, request.id, responses);
+                    if (metrics != null) {
+                        metrics.recordWrite(start, System.nanoTime());
+                    }
+                }
+                else {
+                    ByteBuffer bytes = ByteBuffer.wrap((response + "\n").getBytes(StandardCharsets.US_ASCII));
+                    while (bytes.hasRemaining()) {
+                        responses.write(bytes);
+                    }
+                }
+            }
+        }
+        catch(IOException e){
+            System.err.println("Could not answer job " + request.id + ": " + e.getMessage());
+        }
+    }
+
+    private void readRequest(String line, Request request) throws ParseException {
+        try (JsonParser json = factory.createParser(line)) {
+            if (json.nextToken() != JsonToken.START_OBJECT) {
+                throw new ParseException("Invalid request: expected a JSON object", 0);
+            }
+            while (json.nextToken() == JsonToken.FIELD_NAME) {
+                String field = json.currentName();
+                JsonToken value = json.nextToken();
+                switch (field) {
+                    case "id":
+                        if (value == JsonToken.VALUE_STRING) {
+                            request.id = quote(json.getText());
+                        }
+                        else if (value.isNumeric()) {
+                            request.id = json.getText();
+                        }
+                        else {
+                            throw new ParseException("Invalid request: \"id\" must be a string or a number", offset(json));
+                        }
+                        break;
+                    case "expression":
+                        request.expression = parser.parse(json, rootDirectory);
+                        break;
+                    case "input":
+                        request.input = resolve(readString(json, field), field);
+                        break;
+                    case "output":
+                        request.output = readString(json, field);
+                        request.outputPath = resolve(request.output, field);
+                        break;
+                    case "compact":
+                        if (!value.isBoolean()) {
+                            throw new ParseException("Invalid request: \"compact\" must be true or false", offset(json));
+                        }
+                        request.compact = value == JsonToken.VALUE_TRUE;
+                        break;
+                    default:
+                        json.skipChildren();
+                }
+            }
+        }
+        catch(JsonProcessingException e){
+            throw new ParseException("Invalid request: " + e.getOriginalMessage(), 0);
+        }
+        catch(IOException e){
+            throw new ParseException("Invalid request: " + e.getMessage(), 0);
+        }
+        if ((request.expression == null) == (request.input == null)) {
+            throw new ParseException("Invalid request: expected exactly one of \"expression\" and \"input\"", 0);
+        }
+    }
+
+    private Path resolve(String path, String field) throws ParseException {
+        try{
+            return InputParser.resolveInside(rootDirectory, rootDirectory, path);
+        }
+        catch(IllegalArgumentException e){
+            throw new ParseException("Invalid request: \"" + field + "\": " + e.getMessage(), 0);
+        }
+    }
+
+    private static String readString(JsonParser json, String field) throws ParseException, IOException {
+        if (json.currentToken() != JsonToken.VALUE_STRING) {
+            throw new ParseException("Invalid request: \"" + field + "\" must be a string", offset(json));
+        }
+        return json.getText();
+    }
+
+    private static String error(String id, String message) {
+        return "{\"id\":" + id + ",\"error\":" + quote(String.valueOf(message)) + "}";
+    }
+
+    // A JSON string literal in plain ASCII: quotes, backslashes, control and non-ASCII characters are escaped
+    static String quote(String text) {
+        StringBuilder out = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            }
+            else if (c < 0x20 || c > 0x7e) {
+                out.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    private static int offset(JsonParser json) {
+        return (int) Math.min(Integer.MAX_VALUE, json.currentLocation().getCharOffset());
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+      if (args.length < 1) {
+        System.out.println("Usage: java -cp LAE.jar spl.lae.JobServer <num_threads> [--port <port> | --socket <path>] [--jobs <n>] [--connections <n>] [--root <dir>] [--work-stealing] [--dispatch <least-tired|two-choices>] [--park] [--sparse] [--cache-mb <n>] [--metrics <file.json|file.prom>] [--trace <file>]");
+        return;
+      }
+
+      int numThreads = Integer.parseInt(args[0]);
+      ExecutionMode mode = ExecutionMode.HANDOFF;
+      DispatchPolicy policy = DispatchPolicy.LEAST_TIRED;
+      boolean parking = false;
+      boolean sparse = false;
+      long cacheBytes = 0;
+      int jobs = 1;
+      int maxConnections = DEFAULT_CONNECTIONS;
+      Path root = Paths.get("");
+      int port = -1;
+      String socketPath = null;
+      String metricsPath = null;
+      String tracePath = null;
+      for (int i = 1; i < args.length; i++) {
+        if (args[i].equals("--work-stealing")) {
+          mode = ExecutionMode.WORK_STEALING;
+        }
+        else if (args[i].equals("--dispatch") && i + 1 < args.length) {
+          policy = DispatchPolicy.valueOf(args[++i].toUpperCase().replace('-', '_'));
+        }
+        else if (args[i].equals("--park")) {
+          parking = true;
+        }
+        else if (args[i].equals("--sparse")) {
+          sparse = true;
+        }
+        else if (args[i].equals("--cache-mb") && i + 1 < args.length) {
+          cacheBytes = Long.parseLong(args[++i]) << 20;
+        }
+        else if (args[i].equals("--jobs") && i + 1 < args.length) {
+          jobs = Integer.parseInt(args[++i]);
+        }
+        else if (args[i].equals("--connections") && i + 1 < args.length) {
+          maxConnections = Integer.parseInt(args[++i]);
+        }
+        else if (args[i].equals("--root") && i + 1 < args.length) {
+          root = Paths.get(args[++i]);
+        }
+        else if (args[i].equals("--port") && i + 1 < args.length) {
+          port = Integer.parseInt(args[++i]);
+        }
+        else if (args[i].equals("--socket") && i + 1 < args.length) {
+          socketPath = args[++i];
+        }
+        else if (args[i].equals("--metrics") && i + 1 < args.length) {
+          metricsPath = args[++i];
+        }
+        else if (args[i].equals("--trace") && i + 1 < args.length) {
+          tracePath = args[++i];
+        }
+      }
+      Metrics metrics = metricsPath != null || tracePath != null ? new Metrics() : null;
+      if (tracePath != null) {
+        metrics.enableTrace(Metrics.DEFAULT_TRACE_EVENTS);
+      }
+
+      try (LinearAlgebraEngine engine = new LinearAlgebraEngine(numThreads, mode, policy);
+           JobServer server = new JobServer(engine, jobs, maxConnections, root)) {
+        engine.setParking(parking);
+        server.setAutoSparse(sparse);
+        if (cacheBytes > 0) {
+          engine.setResultCache(new ResultCache(cacheBytes));
+        }
+        engine.setMetrics(metrics);
+        if (port < 0 && socketPath == null) {
+          // stdout carries only responses; everything else goes to stderr
+          server.serve(System.in, new FileOutputStream(FileDescriptor.out).getChannel());
+          System.err.println("Served " + engine.getJobsCompleted() + " jobs.");
+          System.err.println(engine.getWorkerReport());
+          if (engine.getResultCache() != null) {
+            System.err.println(engine.getResultCache());
+          }
+          writeMetrics(metrics, metricsPath, tracePath);
+          return;
+        }
+        // A socket server runs until it is killed, so the metrics are written on the way out
+        final String metricsFile = metricsPath;
+        final String traceFile = tracePath;
+        if (metrics != null) {
+          Runtime.getRuntime().addShutdownHook(new Thread(() -> writeMetrics(metrics, metricsFile, traceFile)));
+        }
+        try (ServerSocketChannel channel = socketPath != null
+            ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+            : ServerSocketChannel.open()) {
+          if (socketPath != null) {
+            channel.bind(UnixDomainSocketAddress.of(socketPath));
+            Paths.get(socketPath).toFile().deleteOnExit();
+          }
+          else {
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+          }
+          System.err.println("Listening on " + channel.getLocalAddress());
+          server.serve(channel);
+        }
+      }
+    }
+
+    private static void writeMetrics(Metrics metrics, String metricsPath, String tracePath) {
+      try{
+        if (metricsPath != null) {
+          metrics.export(Paths.get(metricsPath));
+        }
+        if (tracePath != null) {
+          metrics.writeTrace(Paths.get(tracePath));
+        }
+      }
+      catch(IOException e){
+        System.err.println("Could not write metrics: " + e.getMessage());
+      }
+    }
+}
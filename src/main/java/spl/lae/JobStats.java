@@ -0,0 +1,103 @@
+package spl.lae;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What one call to {@link LinearAlgebraEngine#run} cost. Filled in while the job runs, so it is
+ * only complete once run() has returned. Task time is measured around each task, so it is this
+ * job's share of the workers even when other jobs run on the same engine at the same time.
+ */
+public class JobStats {
+
+    private volatile long wallTimeNanos;
+    private volatile long optimizeTimeNanos;
+    private final LongAdder rounds = new LongAdder();
+    private final LongAdder nodesComputed = new LongAdder();
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder taskTimeNanos = new LongAdder();
+    private final LongAdder sharedNodes = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    void setWallTime(long nanos) {
+        wallTimeNanos = nanos;
+    }
+
+    void setOptimizeTime(long nanos) {
+        optimizeTimeNanos = nanos;
+    }
+
+    void addRound(int nodes, int tasks) {
+        rounds.increment();
+        nodesComputed.add(nodes);
+        this.tasks.add(tasks);
+    }
+
+    void addTaskTime(long nanos) {
+        taskTimeNanos.add(nanos);
+    }
+
+    void addSharedNodes(int nodes) {
+        sharedNodes.add(nodes);
+    }
+
+    void addCacheHit() {
+        cacheHits.increment();
+    }
+
+    /**
+     * Time from the start of run() until it returned.
+     */
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    /**
+     * Time spent rewriting the tree before any computation.
+     */
+    public long getOptimizeTimeNanos() {
+        return optimizeTimeNanos;
+    }
+
+    /**
+     * Number of batches handed to the workers: one per computed node, since each is dispatched on its own.
+     */
+    public long getRounds() {
+        return rounds.sum();
+    }
+
+    public long getNodesComputed() {
+        return nodesComputed.sum();
+    }
+
+    public long getTasks() {
+        return tasks.sum();
+    }
+
+    /**
+     * Sum over this job's tasks of the time each took to run, whichever thread ran it.
+     */
+    public long getTaskTimeNanos() {
+        return taskTimeNanos.sum();
+    }
+
+    /**
+     * Duplicate subtrees merged into another copy, and so not computed again.
+     */
+    public long getSharedNodes() {
+        return sharedNodes.sum();
+    }
+
+    /**
+     * Subtrees whose result came from the engine's result cache.
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Job: WallTime=%d ns, OptimizeTime=%d ns, Rounds=%d, Nodes=%d, Tasks=%d, TaskTime=%d ns, Shared=%d, CacheHits=%d",
+                getWallTimeNanos(), getOptimizeTimeNanos(), getRounds(), getNodesComputed(), getTasks(), getTaskTimeNanos(),
+                getSharedNodes(), getCacheHits());
+    }
+}
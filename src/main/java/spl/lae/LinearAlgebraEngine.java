@@ -3,136 +3,644 @@ package spl.lae;
 import parser.*;
 import memory.*;
 import scheduling.*;
+import metrics.Metrics;
+import metrics.NodeMeter;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class LinearAlgebraEngine {
+/**
+ * Evaluates expression trees on a pool of worker threads that lives as long as the engine.
+ * Any number of trees can be run one after the other, or from several threads at once, until
+ * {@link #close()} stops the workers.
+ */
+public class LinearAlgebraEngine implements AutoCloseable {
 
-    private SharedMatrix leftMatrix = new SharedMatrix();
-    private SharedMatrix rightMatrix = new SharedMatrix();
-    private TiredExecutor executor;
+    static final long MIN_WORK_PER_TASK = 16_384; // element operations below which a task is not worth scheduling
+    static final int TASKS_PER_WORKER = 4;
+
+    private final TiredExecutor executor;
+    private int chunkSize = 0; // vectors per task; 0 means sized from the matrix and the worker count
+    private boolean parking = false; // park matrices waiting for a later node and free operands once consumed
+    private volatile ResultCache resultCache = null; // results kept across jobs; null when caching is off
+    private volatile Metrics metrics = null; // null while nothing is measured
+    private volatile boolean closed = false;
+    private volatile JobStats lastJobStats = null;
+    private final AtomicLong jobsCompleted = new AtomicLong(0);
+
+    // What one job needs while its nodes are computed. Nodes can be shared by several parents,
+    // so everything is keyed by identity. Only the thread running the job touches it, except for
+    // the finished queue, which the workers fill.
+    private static final class Job {
+        final ComputationNode root;
+        final JobStats stats;
+        final ResultCache cache;
+        final Map<ComputationNode, Fingerprint> fingerprints; // null without a cache
+        final Set<ComputationNode> pinned = Collections.newSetFromMap(new IdentityHashMap<>()); // matrices owned by the cache
+        final Map<ComputationNode, Integer> uses = new IdentityHashMap<>(); // parking mode: parents yet to consume a node
+        final Map<ComputationNode, Integer> waiting = new IdentityHashMap<>(); // operands of a node not computed yet
+        final Map<ComputationNode, List<ComputationNode>> parents = new IdentityHashMap<>(); // one entry per use as an operand
+        final BlockingQueue<DispatchedNode> finished = new LinkedBlockingQueue<>(); // nodes whose tasks have all run
+        final Set<TaskBatch> running = Collections.newSetFromMap(new IdentityHashMap<>()); // batches not taken from finished yet
+        final Metrics metrics; // null while nothing is measured
+        final long id; // numbered by the metrics; 0 without them
+
+        Job(ComputationNode root, JobStats stats, ResultCache cache, Metrics metrics) {
+            this.root = root;
+            this.stats = stats;
+            this.cache = cache;
+            this.fingerprints = cache == null ? null : Fingerprint.of(root);
+            this.metrics = metrics;
+            this.id = metrics == null ? 0 : metrics.startJob();
+        }
+    }
+
+    // A node whose tasks have been created but not run yet, and how to hand it their output
+    private static class PendingNode {
+        final ComputationNode node;
+        final Runnable resolve; // run once every task has finished
+        final List<Runnable> tasks;
+
+        PendingNode(ComputationNode node, SharedMatrix result, List<Runnable> tasks) {
+            this(node, () -> node.resolve(result), tasks);
+        }
+
+        PendingNode(ComputationNode node, Runnable resolve, List<Runnable> tasks) {
+            this.node = node;
+            this.resolve = resolve;
+            this.tasks = tasks;
+        }
+    }
+
+    // A node handed to the workers, waiting for its batch to complete
+    private static final class DispatchedNode {
+        final PendingNode pending;
+        final NodeMeter meter; // null while nothing is measured
+        final long start;
+        final int tasks;
+        TaskBatch batch; // null if the node had no tasks
+
+        DispatchedNode(PendingNode pending, NodeMeter meter, long start, int tasks) {
+            this.pending = pending;
+            this.meter = meter;
+            this.start = start;
+            this.tasks = tasks;
+        }
+    }
 
     public LinearAlgebraEngine(int numThreads) {
         executor = new TiredExecutor(numThreads);
     }
 
+    public LinearAlgebraEngine(int numThreads, ExecutionMode mode) {
+        executor = new TiredExecutor(numThreads, mode);
+    }
+
+    /**
+     * {@code policy} picks the idle worker each task is handed to; it only matters in HANDOFF mode.
+     */
+    public LinearAlgebraEngine(int numThreads, ExecutionMode mode, DispatchPolicy policy) {
+        executor = new TiredExecutor(numThreads, mode, policy);
+    }
+
+    /**
+     * Evaluates the tree as a dependency graph: every node is handed to the workers as soon as its
+     * last operand has been computed, so independent subtrees run side by side and a deep branch
+     * never holds back the nodes of a quicker one.
+     * Identical subtrees are computed once and shared, and with a result cache set, subtrees seen in
+     * earlier jobs are not computed at all.
+     * The engine stays open for further jobs; what this one cost is available from {@link #getLastJobStats()}.
+     * If a task throws, the job stops: nodes still running are cancelled and the exception is rethrown from here.
+     */
     public ComputationNode run(ComputationNode computationRoot) {
-        computationRoot.associativeNesting();
-        ComputationNode resolvable;
-        while ((resolvable = computationRoot.findResolvable()) != null) {
-            loadAndCompute(resolvable);
+        JobStats stats = new JobStats();
+        ComputationNode result = run(computationRoot, stats);
+        lastJobStats = stats;
+        return result;
+    }
+
+    /**
+     * Same as {@link #run(ComputationNode)}, recording what the job cost in {@code stats}.
+     * Meant for callers running several jobs at once, where "the last job" is ambiguous.
+     */
+    public ComputationNode run(ComputationNode computationRoot, JobStats stats) {
+        ensureOpen();
+        long start = System.nanoTime();
+        new ExpressionOptimizer().optimize(computationRoot);
+        stats.addSharedNodes(new CommonSubexpressions().eliminate(computationRoot));
+        stats.setOptimizeTime(System.nanoTime() - start);
+        Job job = newJob(computationRoot, stats);
+        evaluate(job);
+        long end = System.nanoTime();
+        stats.setWallTime(end - start);
+        if (job.metrics != null) {
+            job.metrics.recordJob(job.id, start, end);
+        }
+        jobsCompleted.incrementAndGet();
+        return computationRoot;
+    }
+
+    public void loadAndCompute(ComputationNode node) {
+        ensureOpen();
+        evaluate(newJob(node, new JobStats()));
+    }
+
+    // Takes cached results, then in parking mode counts the uses of every node and parks the leaves
+    private Job newJob(ComputationNode root, JobStats stats) {
+        Job job = new Job(root, stats, resultCache, metrics);
+        if (job.cache != null) {
+            resolveCached(root, job, Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
+        if (parking) {
+            Set<ComputationNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            countUses(root, job, visited);
+            visited.clear();
+            parkLeaves(root, job, visited);
+        }
+        return job;
+    }
+
+    // Top down, so a hit on a node spares looking at anything below it
+    private void resolveCached(ComputationNode node, Job job, Set<ComputationNode> visited) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || !visited.add(node)) {
+            return;
         }
+        if (job.cache.resolve(node, job.fingerprints.get(node))) {
+            job.pinned.add(node);
+            job.stats.addCacheHit();
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            resolveCached(child, job, visited);
+        }
+    }
+
+    private void countUses(ComputationNode node, Job job, Set<ComputationNode> visited) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || !visited.add(node)) {
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            job.uses.merge(child, 1, Integer::sum);
+            countUses(child, job, visited);
+        }
+    }
+
+    /**
+     * Stops the worker threads once they finish what they are running. Further jobs are rejected;
+     * closing again does nothing.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try{
+            executor.shutdown();
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("The engine has been closed");
+        }
+    }
+
+    /**
+     * Computes every unresolved node under the job's root. Each node's tasks form one batch, submitted
+     * once its last operand is resolved; the batch's completion is queued back to this thread, which
+     * resolves the node and dispatches whichever parents that made ready. Results stay in native form,
+     * and every operation writes a fresh matrix, so operands are never modified.
+     */
+    private void evaluate(Job job) {
+        Deque<ComputationNode> ready = new ArrayDeque<>();
+        addDependencies(job.root, job, ready, Collections.newSetFromMap(new IdentityHashMap<>()));
         try{
-            if (executor != null) {
-                executor.shutdown();
+            while (true) {
+                while (!ready.isEmpty()) {
+                    DispatchedNode d = dispatch(ready.poll(), job);
+                    if (d.batch == null) {
+                        complete(d, job, ready);
+                    }
+                }
+                if (job.running.isEmpty()) {
+                    return;
+                }
+                DispatchedNode d = job.finished.take();
+                job.running.remove(d.batch);
+                d.batch.await(); // Rethrows what a task threw
+                complete(d, job, ready);
             }
         }
-        catch(Exception e){
+        catch(InterruptedException e){
             Thread.currentThread().interrupt();
+            cancelRunning(job);
+            throw new CancellationException("Interrupted while waiting for a job");
+        }
+        catch(RuntimeException | Error e){
+            cancelRunning(job);
+            throw e;
         }
+    }
 
-        return computationRoot;
+    // Tasks already running finish on their own; the others are skipped
+    private static void cancelRunning(Job job) {
+        for (TaskBatch batch : job.running) {
+            batch.cancel();
+        }
+        job.running.clear();
     }
 
-    public void loadAndCompute(ComputationNode node) {
-        List<ComputationNode> children = node.getChildren();
-        this.leftMatrix = new SharedMatrix(children.get(0).getMatrix());
+    // Counts every node's unresolved operands and remembers its parents, since resolving a node drops its children
+    private void addDependencies(ComputationNode node, Job job, Deque<ComputationNode> ready, Set<ComputationNode> visited) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || !visited.add(node)) {
+            return;
+        }
+        int waiting = 0;
+        for (ComputationNode child : node.getChildren()) {
+            if (child.getNodeType() != ComputationNodeType.MATRIX) {
+                waiting++;
+                job.parents.computeIfAbsent(child, k -> new java.util.ArrayList<>()).add(node);
+                addDependencies(child, job, ready, visited);
+            }
+        }
+        job.waiting.put(node, waiting);
+        if (waiting == 0) {
+            ready.add(node);
+        }
+    }
+
+    // Creates a ready node's tasks and submits them as one batch, whose completion is queued to job.finished
+    private DispatchedNode dispatch(ComputationNode node, Job job) {
+        checkOperands(node);
+        NodeMeter meter = null;
+        if (job.metrics != null) {
+            meter = job.metrics.startNode(job.id, node.getNodeType().name(), estimateFlops(node));
+            meter.enter();
+        }
+        long start = job.metrics == null ? 0 : System.nanoTime();
+        if (parking) {
+            for (ComputationNode child : node.getChildren()) {
+                if (!child.isSparse()) {
+                    child.getSharedMatrix().unpark();
+                }
+            }
+        }
+        PendingNode p = load(node);
+        List<Runnable> tasks = new java.util.ArrayList<>(p.tasks.size());
+        for (Runnable task : p.tasks) {
+            tasks.add(timed(meter == null ? task : meter.measure(task), job.stats));
+        }
+        job.stats.addRound(1, tasks.size());
+        DispatchedNode d = new DispatchedNode(p, meter, start, tasks.size());
+        if (!tasks.isEmpty()) {
+            d.batch = executor.submitBatch(tasks);
+            job.running.add(d.batch);
+            d.batch.future().whenComplete((result, failure) -> job.finished.add(d));
+        }
+        if (meter != null) {
+            meter.exit();
+        }
+        return d;
+    }
 
-        if (children.size() > 1) {
-            this.rightMatrix = new SharedMatrix(children.get(1).getMatrix());
+    /**
+     * Resolves a node whose tasks have all run and queues the parents it was the last missing operand of.
+     * In parking mode an operand is freed once the last node using it is resolved, and a result no
+     * parent can use yet is parked until one can. Matrices held by the result cache are
+     * neither freed nor parked, and neither is the root's.
+     */
+    private void complete(DispatchedNode d, Job job, Deque<ComputationNode> ready) {
+        PendingNode p = d.pending;
+        if (d.meter != null) {
+            d.meter.enter();
+        }
+        List<ComputationNode> operands = p.node.getChildren();
+        // A transpose is an O(1) view, not worth a cache entry
+        boolean cacheable = job.cache != null && p.node.getNodeType() != ComputationNodeType.TRANSPOSE;
+        p.resolve.run();
+        if (cacheable) {
+            job.cache.put(job.fingerprints.get(p.node), p.node);
+            job.pinned.add(p.node);
         }
+        boolean usedNow = false;
+        for (ComputationNode parent : job.parents.getOrDefault(p.node, List.of())) {
+            if (job.waiting.merge(parent, -1, Integer::sum) == 0) {
+                ready.add(parent);
+                usedNow = true;
+            }
+        }
+        if (parking) {
+            for (ComputationNode operand : operands) {
+                if (job.uses.merge(operand, -1, Integer::sum) <= 0 && !operand.isSparse() && !job.pinned.contains(operand)) {
+                    operand.getSharedMatrix().release();
+                }
+            }
+            if (!usedNow && p.node != job.root && !p.node.isSparse() && !job.pinned.contains(p.node)) {
+                p.node.getSharedMatrix().park();
+            }
+        }
+        if (d.meter != null) {
+            d.meter.exit();
+            d.meter.finish();
+            job.metrics.recordRound(job.id, 1, d.tasks, d.start, System.nanoTime());
+        }
+    }
 
-        List<Runnable> tasks = null;
+    // Negate and transpose take one operand, add and multiply two (longer sums and products are nested by the parser)
+    private static void checkOperands(ComputationNode node) {
+        int expected;
         switch (node.getNodeType()) {
-            case ADD:
-                tasks = createAddTasks();
-                break;
-            case MULTIPLY:
-                tasks = createMultiplyTasks();
-                break;
             case NEGATE:
-                tasks = createNegateTasks();
-                break;
             case TRANSPOSE:
-                tasks = createTransposeTasks();
+                expected = 1;
                 break;
-            default:
+            case ADD:
+            case MULTIPLY:
+                expected = 2;
                 break;
+            default:
+                return;
         }
+        int actual = node.getChildren() == null ? 0 : node.getChildren().size();
+        if (actual != expected) {
+            throw new IllegalArgumentException("Illegal operation: " + node.getNodeType() + " takes "
+                    + expected + (expected == 1 ? " operand" : " operands") + ", got " + actual);
+        }
+    }
 
-        if(tasks!=null){
-            executor.submitAll(tasks);
+    /**
+     * Floating-point operations a node will take, from its operands' shapes: a multiply-add per term of
+     * every product, and per stored operand element of a linear combination. A transpose is free.
+     */
+    static long estimateFlops(ComputationNode node) {
+        List<ComputationNode> children = node.getChildren();
+        switch (node.getNodeType()) {
+            case TRANSPOSE:
+                return 0;
+            case MULTIPLY:
+                ComputationNode left = children.get(0);
+                ComputationNode right = children.get(1);
+                if (left.isSparse() && right.isSparse()) {
+                    SparseMatrix b = right.getSparseMatrix();
+                    return 2L * left.getSparseMatrix().nonZeros() * b.nonZeros() / Math.max(1, b.rowCount());
+                }
+                if (left.isSparse()) {
+                    return 2L * left.getSparseMatrix().nonZeros() * right.getSharedMatrix().columnCount();
+                }
+                if (right.isSparse()) {
+                    return 2L * left.getSharedMatrix().rowCount() * right.getSparseMatrix().nonZeros();
+                }
+                SharedMatrix a = left.getSharedMatrix();
+                return 2L * a.rowCount() * a.columnCount() * right.getSharedMatrix().columnCount();
+            default:
+                long flops = 0;
+                for (ComputationNode child : children) {
+                    if (child.isSparse()) {
+                        flops += 2L * child.getSparseMatrix().nonZeros();
+                    }
+                    else {
+                        flops += 2L * child.getSharedMatrix().rowCount() * child.getSharedMatrix().columnCount();
+                    }
+                }
+                return flops;
         }
-        node.resolve(leftMatrix.readRowMajor());
+    }
 
+    private static Runnable timed(Runnable task, JobStats stats) {
+        return () -> {
+            long start = System.nanoTime();
+            try{
+                task.run();
+            }
+            finally{
+                stats.addTaskTime(System.nanoTime() - start);
+            }
+        };
     }
 
-    public List<Runnable> createAddTasks() {
-        List<Runnable> tasks = new java.util.ArrayList<>();
+    private void parkLeaves(ComputationNode node, Job job, Set<ComputationNode> visited) {
+        if (!visited.add(node)) {
+            return;
+        }
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            if (!node.isSparse() && !job.pinned.contains(node)) {
+                node.getSharedMatrix().park();
+            }
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            parkLeaves(child, job, visited);
+        }
+    }
 
-        int numVectors = leftMatrix.length(); 
+    private PendingNode load(ComputationNode node) {
+        List<ComputationNode> children = node.getChildren();
+        ComputationNode left = children.get(0);
 
-        for (int i = 0; i < numVectors; i++) {
-            final int index = i;
-            tasks.add(() -> {
-                SharedVector vLeft = leftMatrix.get(index);
-                SharedVector vRight = rightMatrix.get(index);
-                vLeft.add(vRight);
-            });
+        switch (node.getNodeType()) {
+            case TRANSPOSE:
+                // A view over the operand's storage: no tasks, no copy
+                if (left.isSparse()) {
+                    SparseMatrix transposed = left.getSparseMatrix().transposed();
+                    return new PendingNode(node, () -> node.resolve(transposed), List.of());
+                }
+                return new PendingNode(node, left.getSharedMatrix().transposed(), List.of());
+            case MULTIPLY:
+                ComputationNode right = children.get(1);
+                if ((left.isSparse() || right.isSparse()) && isFinite(left) && isFinite(right)) {
+                    return loadSparseMultiply(node, left, right);
+                }
+                // A non-finite operand needs every product computed, so that 0 * Inf and 0 * NaN give NaN
+                BlockedMatrixMultiply product = new BlockedMatrixMultiply(dense(left), dense(right));
+                return new PendingNode(node, product.getResult(), createMultiplyTasks(product));
+            case ADD:
+                return loadLinearCombination(node, new double[]{1, 1}, new boolean[2]);
+            case SUBTRACT:
+                return loadLinearCombination(node, new double[]{1, -1}, new boolean[2]);
+            case NEGATE:
+                return loadLinearCombination(node, new double[]{-1}, new boolean[1]);
+            case LINEAR_COMBINATION:
+                return loadLinearCombination(node, node.getCoefficients(), node.getTransposed());
+            default:
+                return new PendingNode(node, left.getSharedMatrix(), List.of());
         }
-        return tasks;
     }
 
-    public List<Runnable> createMultiplyTasks() {
-        List<Runnable> tasks = new java.util.ArrayList<>();
+    private static boolean isFinite(ComputationNode node) {
+        return node.isSparse() ? node.getSparseMatrix().isFinite() : node.getSharedMatrix().isFinite();
+    }
 
-        int numVectors = leftMatrix.length(); 
+    private static SharedMatrix dense(ComputationNode node) {
+        return node.isSparse() ? node.getSparseMatrix().toDense() : node.getSharedMatrix();
+    }
 
-        for (int i = 0; i < numVectors; i++) {
-            final int index = i;
-            tasks.add(() -> {
-                SharedVector vLeft = leftMatrix.get(index);
-                vLeft.vecMatMul(rightMatrix);
-            });
+    private PendingNode loadSparseMultiply(ComputationNode node, ComputationNode left, ComputationNode right) {
+        SparseMultiply product;
+        if (left.isSparse() && right.isSparse()) {
+            product = new SparseMultiply(left.getSparseMatrix(), right.getSparseMatrix());
+        }
+        else if (left.isSparse()) {
+            product = new SparseMultiply(left.getSparseMatrix(), right.getSharedMatrix());
+        }
+        else {
+            product = new SparseMultiply(left.getSharedMatrix(), right.getSparseMatrix());
+        }
+        List<Runnable> tasks = product.createRowTasks(chunkSizeFor(product.getRows(), product.getCostPerRow()));
+        if (!product.isSparseResult()) {
+            return new PendingNode(node, product.getResult(), tasks);
         }
-        return tasks;
+        // A product of sparse matrices can fill in; expand it if it is no longer worth keeping sparse
+        return new PendingNode(node, () -> {
+            SparseMatrix result = product.getSparseResult();
+            if (result.density() > SparseMatrix.DENSITY_THRESHOLD) {
+                node.resolve(result.toDense());
+            }
+            else {
+                node.resolve(result);
+            }
+        }, tasks);
     }
 
-    public List<Runnable> createNegateTasks() {
-        List<Runnable> tasks = new java.util.ArrayList<>();
-    
-        int numVectors = leftMatrix.length();
+    // Add, subtract and negate are all linear combinations, computed by one fused kernel
+    private PendingNode loadLinearCombination(ComputationNode node, double[] coefficients, boolean[] transposed) {
+        List<ComputationNode> children = node.getChildren();
+        List<SharedMatrix> terms = new java.util.ArrayList<>();
+        List<SparseMatrix> sparseTerms = new java.util.ArrayList<>();
+        double[] denseCoefficients = new double[children.size()];
+        double[] sparseCoefficients = new double[children.size()];
+        for (int i = 0; i < children.size(); i++) {
+            ComputationNode child = children.get(i);
+            if (child.isSparse()) {
+                SparseMatrix operand = child.getSparseMatrix();
+                sparseCoefficients[sparseTerms.size()] = coefficients[i];
+                sparseTerms.add(transposed[i] ? operand.transposed() : operand);
+            }
+            else {
+                SharedMatrix operand = child.getSharedMatrix();
+                denseCoefficients[terms.size()] = coefficients[i];
+                terms.add(transposed[i] ? operand.transposed() : operand);
+            }
+        }
+        double[] sparseFactors = java.util.Arrays.copyOf(sparseCoefficients, sparseTerms.size());
+        if (terms.isEmpty() && !SparseMatrix.combinationStaysSparse(sparseFactors)) {
+            // Missing entries come out -0.0, which only a dense result can hold
+            terms.add(sparseTerms.remove(0).toDense());
+            denseCoefficients[0] = sparseFactors[0];
+            sparseFactors = java.util.Arrays.copyOfRange(sparseFactors, 1, sparseFactors.length);
+        }
+        double[] factors = sparseFactors;
+        if (terms.isEmpty()) {
+            // Only sparse operands: the result stays sparse, merged in a single task
+            SparseMatrix[] result = new SparseMatrix[1];
+            return new PendingNode(node, () -> node.resolve(result[0]),
+                    List.of(() -> result[0] = SparseMatrix.linearCombination(sparseTerms, factors)));
+        }
+        FusedElementwise combination = new FusedElementwise(terms, java.util.Arrays.copyOf(denseCoefficients, terms.size()),
+                sparseTerms, factors);
+        return new PendingNode(node, combination.getResult(), createLinearCombinationTasks(combination));
+    }
 
-        for (int i = 0; i < numVectors; i++) {
-            final int index = i; 
-            
-            tasks.add(() -> {
-                leftMatrix.get(index).negate();
-            });
+    public List<Runnable> createLinearCombinationTasks(FusedElementwise combination) {
+        return combination.createRowTasks(chunkSizeFor(combination.getRows(), combination.getCostPerRow()));
+    }
+
+    public List<Runnable> createMultiplyTasks(BlockedMatrixMultiply product) {
+        long work = (long) product.getLeftRows() * product.getInnerDimension() * product.getRightColumns();
+        long parallelism = Math.min(executor.getNumThreads(), Math.max(1, work / MIN_WORK_PER_TASK));
+        return product.createTileTasks((int) parallelism, chunkSize);
+    }
+
+    /**
+     * Overrides the number of result rows each task handles.
+     * 0 restores automatic sizing.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 0) {
+            throw new IllegalArgumentException("Chunk size cannot be negative: " + chunkSize);
         }
-    
-        return tasks;
+        this.chunkSize = chunkSize;
     }
 
-    public List<Runnable> createTransposeTasks() {
-        List<Runnable> tasks = new java.util.ArrayList<>();
-    
-        int numVectors = leftMatrix.length();
+    /**
+     * Parks matrices that are waiting for a later node in pooled direct buffers, copying them back when
+     * they are needed, and frees every operand as soon as the node using it is resolved.
+     */
+    public void setParking(boolean parking) {
+        this.parking = parking;
+    }
+
+    /**
+     * Keeps results across jobs in {@code cache}, shared by every job run from then on; null turns caching off.
+     * Each job then also reads every element of its matrices once, to fingerprint them.
+     */
+    public void setResultCache(ResultCache cache) {
+        this.resultCache = cache;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
 
-        for (int i = 0; i < numVectors; i++) {
-            final int index = i; 
-            
-            tasks.add(() -> {
-                leftMatrix.get(index).transpose();
-            });
+    /**
+     * Records what every job, node and task costs into {@code metrics} from now on; null turns measuring off.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        executor.setMetrics(metrics);
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Picks how many rows (or vectors) one task handles. Each task gets at least MIN_WORK_PER_TASK element
+     * operations so tiny matrices run as a single task, and big ones are cut into about
+     * TASKS_PER_WORKER tasks per worker so that uneven workers still finish together.
+     */
+    int chunkSizeFor(int numVectors, long costPerVector) {
+        if (chunkSize > 0) {
+            return chunkSize;
         }
-    
-        return tasks;
+        long minChunk = (MIN_WORK_PER_TASK + Math.max(1, costPerVector) - 1) / Math.max(1, costPerVector);
+        long targetTasks = (long) Math.max(1, executor.getNumThreads()) * TASKS_PER_WORKER;
+        long balancedChunk = (numVectors + targetTasks - 1) / targetTasks;
+        return (int) Math.max(1, Math.min(numVectors, Math.max(minChunk, balancedChunk)));
     }
 
     public String getWorkerReport() {
         return executor.getWorkerReport();
     }
 
+    /**
+     * Statistics of the most recent run(ComputationNode) to finish, or null before the first one.
+     */
+    public JobStats getLastJobStats() {
+        return lastJobStats;
+    }
+
+    public long getJobsCompleted() {
+        return jobsCompleted.get();
+    }
+
 
 }
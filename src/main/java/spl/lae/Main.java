@@ -1,34 +1,99 @@
 package spl.lae;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.text.ParseException;
 
+import metrics.Metrics;
 import parser.*;
+import scheduling.DispatchPolicy;
+import scheduling.ExecutionMode;
 
 public class Main {
     public static void main(String[] args) throws IOException {
 
       if (args.length < 3) {
-        System.out.println("Usage: java -jar LAE.jar <input_path> <output_path> <num_threads>");
+        System.out.println("Usage: java -jar LAE.jar <num_threads> <input_path> <output_path> [--work-stealing] [--dispatch <least-tired|two-choices>] [--compact] [--binary] [--park] [--sparse] [--metrics <file.json|file.prom>] [--trace <file>]");
+        System.out.println("To keep one engine warm for many jobs, run the job server instead: java -cp LAE.jar spl.lae.JobServer <num_threads> [options]");
+        System.out.println("For a directory or glob of inputs: java -cp LAE.jar spl.lae.BatchRunner <num_threads> <input_dir_or_glob> <output_dir> [options]");
         return;
       }
 
       int numThreads = Integer.parseInt(args[0]); 
       String inputPath = args[1];                
       String outputPath = args[2];
+      ExecutionMode mode = ExecutionMode.HANDOFF;
+      DispatchPolicy policy = DispatchPolicy.LEAST_TIRED;
+      boolean compact = false;
+      boolean binary = BinaryMatrixIO.isBinaryPath(outputPath);
+      boolean parking = false;
+      boolean sparse = false;
+      String metricsPath = null;
+      String tracePath = null;
+      for (int i = 3; i < args.length; i++) {
+        if (args[i].equals("--work-stealing")) {
+          mode = ExecutionMode.WORK_STEALING;
+        }
+        else if (args[i].equals("--dispatch") && i + 1 < args.length) {
+          policy = DispatchPolicy.valueOf(args[++i].toUpperCase().replace('-', '_'));
+        }
+        else if (args[i].equals("--compact")) {
+          compact = true;
+        }
+        else if (args[i].equals("--binary")) {
+          binary = true;
+        }
+        else if (args[i].equals("--park")) {
+          parking = true;
+        }
+        else if (args[i].equals("--sparse")) {
+          sparse = true;
+        }
+        else if (args[i].equals("--metrics") && i + 1 < args.length) {
+          metricsPath = args[++i];
+        }
+        else if (args[i].equals("--trace") && i + 1 < args.length) {
+          tracePath = args[++i];
+        }
+      }
+      Metrics metrics = metricsPath != null || tracePath != null ? new Metrics() : null;
+      if (tracePath != null) {
+        metrics.enableTrace(Metrics.DEFAULT_TRACE_EVENTS);
+      }
 
-      LinearAlgebraEngine engine = new LinearAlgebraEngine(numThreads);
-
-      try {
+      try (LinearAlgebraEngine engine = new LinearAlgebraEngine(numThreads, mode, policy)) {
+        engine.setParking(parking);
+        engine.setMetrics(metrics);
         InputParser parser = new InputParser();
+        parser.setAutoSparse(sparse);
+        long start = System.nanoTime();
         ComputationNode root = parser.parse(inputPath);
+        if (metrics != null) {
+          metrics.recordParse(start, System.nanoTime());
+        }
 
         root = engine.run(root);
 
-        OutputWriter.write(root.getMatrix(), outputPath);
+        start = System.nanoTime();
+        if (binary) {
+          BinaryMatrixIO.write(root.getSharedMatrix(), Paths.get(outputPath));
+        }
+        else {
+          OutputWriter.write(root.getSharedMatrix(), outputPath, compact);
+        }
+        if (metrics != null) {
+          metrics.recordWrite(start, System.nanoTime());
+        }
 
         System.out.println("Computation completed successfully.");
         System.out.println("--- Worker Activity Report ---");
         System.out.println(engine.getWorkerReport());
+        System.out.println(engine.getLastJobStats());
+        if (metricsPath != null) {
+          metrics.export(Paths.get(metricsPath));
+        }
+        if (tracePath != null) {
+          metrics.writeTrace(Paths.get(tracePath));
+        }
       }
       catch (ParseException e) {
         System.err.println("Error parsing input: " + e.getMessage());
@@ -0,0 +1,134 @@
+package spl.lae;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+import parser.ComputationNode;
+import parser.Fingerprint;
+
+/**
+ * Results of earlier subtrees, kept across jobs by an engine that lives long enough to see the
+ * same expressions again. Entries are keyed by {@link Fingerprint} and evicted least recently used
+ * first once their matrices take more than the capacity. Cached matrices are shared with every job
+ * that hits them, which is safe because the engine never writes into an operand.
+ */
+public class ResultCache {
+
+    private final long capacityBytes;
+    private final LinkedHashMap<Fingerprint, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private long sizeBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    // A cached result, in whichever form it was computed
+    private static final class Entry {
+        final SharedMatrix dense;
+        final SparseMatrix sparse;
+        final long bytes;
+
+        Entry(SharedMatrix dense, SparseMatrix sparse, long bytes) {
+            this.dense = dense;
+            this.sparse = sparse;
+            this.bytes = bytes;
+        }
+    }
+
+    public ResultCache(long capacityBytes) {
+        if (capacityBytes <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacityBytes);
+        }
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Resolves {@code node} with the result cached under {@code key}, if there is one.
+     */
+    public synchronized boolean resolve(ComputationNode node, Fingerprint key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+        if (entry.sparse != null) {
+            node.resolve(entry.sparse);
+        }
+        else {
+            node.resolve(entry.dense);
+        }
+        return true;
+    }
+
+    /**
+     * Caches the matrix of the resolved {@code node} under {@code key}, evicting older entries
+     * to make room. A result larger than the whole cache is not kept.
+     */
+    public synchronized void put(Fingerprint key, ComputationNode node) {
+        Entry entry;
+        if (node.isSparse()) {
+            SparseMatrix sparse = node.getSparseMatrix();
+            entry = new Entry(null, sparse, 12L * sparse.nonZeros() + 4L * (Math.max(sparse.rowCount(), sparse.columnCount()) + 1));
+        }
+        else {
+            SharedMatrix dense = node.getSharedMatrix();
+            entry = new Entry(dense, null, 8L * dense.rowCount() * dense.columnCount());
+        }
+        if (entry.bytes > capacityBytes) {
+            return;
+        }
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            sizeBytes -= previous.bytes;
+        }
+        sizeBytes += entry.bytes;
+        Iterator<Map.Entry<Fingerprint, Entry>> oldest = entries.entrySet().iterator();
+        while (sizeBytes > capacityBytes && oldest.hasNext()) {
+            Map.Entry<Fingerprint, Entry> victim = oldest.next();
+            if (victim.getKey().equals(key)) {
+                continue;
+            }
+            sizeBytes -= victim.getValue().bytes;
+            oldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Cache: Entries=%d, Size=%d/%d bytes, Hits=%d, Misses=%d, Evictions=%d",
+                entries.size(), sizeBytes, capacityBytes, hits, misses, evictions);
+    }
+}
@@ -0,0 +1,124 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import memory.*;
+import parser.*;
+import spl.lae.BatchRunner;
+import spl.lae.LinearAlgebraEngine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchRunnerTest {
+
+    @TempDir
+    Path dir;
+
+    private Path writeInput(String name, String json) throws Exception {
+        Path file = dir.resolve("in").resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, json);
+        return file;
+    }
+
+    @Test
+    public void testListsDirectoryAndGlob() throws Exception {
+        writeInput("a.json", "[[1]]");
+        writeInput("b.json", "[[2]]");
+        writeInput("notes.txt", "");
+        writeInput("nested/c.json", "[[3]]");
+        BinaryMatrixIO.write(new SharedMatrix(new double[][]{{4}}), dir.resolve("in").resolve("d.lmat"));
+
+        Path in = dir.resolve("in");
+        assertEquals(List.of(in.resolve("a.json"), in.resolve("b.json"), in.resolve("d.lmat")),
+                BatchRunner.listInputs(in.toString()));
+        assertEquals(in, BatchRunner.baseDirectory(in + "/*.json"));
+        assertEquals(List.of(in.resolve("a.json"), in.resolve("b.json")), BatchRunner.listInputs(in + "/*.json"));
+        assertEquals(List.of(in.resolve("a.json"), in.resolve("b.json"), in.resolve("nested/c.json")),
+                BatchRunner.listInputs(in + "/**.json"));
+    }
+
+    @Test
+    public void testPipelineWritesEveryResult() throws Exception {
+        for (int i = 0; i < 30; i++) {
+            writeInput("sub/job" + i + ".json", "{\"operator\": \"*\", \"operands\": [[[" + i + ", 1]], [[2], [3]]]}");
+        }
+        writeInput("sub/broken.json", "{\"operator\": \"+\"");
+        writeInput("sub/mismatch.json", "{\"operator\": \"+\", \"operands\": [[[1]], [[1, 2]]]}");
+
+        String pattern = dir.resolve("in") + "/**.json";
+        Path out = dir.resolve("out");
+        List<Path> inputs = BatchRunner.listInputs(pattern);
+        assertEquals(32, inputs.size());
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(3)) {
+            BatchRunner runner = new BatchRunner(engine, 2, true, false);
+            assertEquals(2, runner.run(inputs, BatchRunner.baseDirectory(pattern), out));
+            assertEquals(30, runner.getSucceeded());
+            assertEquals(30, engine.getJobsCompleted());
+        }
+        for (int i = 0; i < 30; i++) {
+            assertEquals("{\"result\":[[" + (2.0 * i + 3) + "]]}", Files.readString(out.resolve("sub/job" + i + ".json")));
+        }
+        assertTrue(Files.readString(out.resolve("sub/broken.json")).contains("Parse error"));
+        assertTrue(Files.readString(out.resolve("sub/mismatch.json")).contains("Runtime error"));
+    }
+
+    @Test
+    public void testRefusesToOverwriteInputs() throws Exception {
+        Path input = writeInput("x.json", "[[1]]");
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(1)) {
+            BatchRunner runner = new BatchRunner(engine, 1, false, true);
+            assertEquals(1, runner.run(List.of(input), input.getParent(), input.getParent()));
+        }
+        assertEquals("[[1]]", Files.readString(input));
+    }
+
+    @Test
+    public void testBadItemFailsOnlyItself() throws Exception {
+        Path a = writeInput("a.json", "[[1]]");
+        Path b = writeInput("b.json", "[[2]]");
+        List<Path> inputs = new ArrayList<>();
+        inputs.add(a);
+        inputs.add(null); // No output path can be made for it
+        inputs.add(b);
+        Path out = dir.resolve("out");
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2)) {
+            BatchRunner runner = new BatchRunner(engine, 1, true, false);
+            assertEquals(1, assertTimeoutPreemptively(Duration.ofSeconds(30), () -> runner.run(inputs, a.getParent(), out)));
+            assertEquals(2, runner.getSucceeded());
+        }
+        assertEquals("{\"result\":[[2.0]]}", Files.readString(out.resolve("b.json")));
+    }
+
+    @Test
+    public void testDeadStageFailsTheRun() throws Exception {
+        Path a = writeInput("a.json", "[[1]]");
+        // The reader thread dies with an Error on the second file
+        List<Path> inputs = new AbstractList<>() {
+            @Override
+            public Path get(int index) {
+                if (index == 1) {
+                    throw new AssertionError("reader killed");
+                }
+                return a;
+            }
+
+            @Override
+            public int size() {
+                return 3;
+            }
+        };
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2)) {
+            BatchRunner runner = new BatchRunner(engine, 1, true, false);
+            IllegalStateException thrown = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                    () -> assertThrows(IllegalStateException.class, () -> runner.run(inputs, a.getParent(), dir.resolve("out"))),
+                    "The run must not wait forever for a dead stage");
+            assertEquals("reader killed", thrown.getCause().getMessage());
+            assertFalse(Thread.currentThread().isInterrupted());
+        }
+    }
+}
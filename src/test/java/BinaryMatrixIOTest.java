@@ -0,0 +1,54 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import memory.*;
+import parser.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+public class BinaryMatrixIOTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRowMajorRoundTrip() throws Exception {
+        double[][] data = {{1, 2, 3}, {4, 5, -6.25}};
+        Path file = dir.resolve("a.lmat");
+        BinaryMatrixIO.write(new SharedMatrix(data), file);
+        assertEquals(32 + 6 * 8, Files.size(file));
+        SharedMatrix read = BinaryMatrixIO.read(file);
+        assertEquals(VectorOrientation.ROW_MAJOR, read.getOrientation());
+        assertArrayEquals(data, read.readRowMajor());
+    }
+
+    @Test
+    public void testColumnMajorKeepsLayout() throws Exception {
+        SharedMatrix m = new SharedMatrix();
+        m.loadColumnMajor(new double[][]{{1, 2}, {3, 4}, {5, 6}});
+        Path file = dir.resolve("c.lmat");
+        BinaryMatrixIO.write(m, file);
+        SharedMatrix read = BinaryMatrixIO.read(file);
+        assertEquals(VectorOrientation.COLUMN_MAJOR, read.getOrientation());
+        assertEquals(3, read.rowCount());
+        assertArrayEquals(new double[][]{{1, 2}, {3, 4}, {5, 6}}, read.readRowMajor());
+    }
+
+    @Test
+    public void testFileReferenceInExpression() throws Exception {
+        BinaryMatrixIO.write(new SharedMatrix(new double[][]{{1, 2}, {3, 4}}), dir.resolve("m.lmat"));
+        Path input = dir.resolve("input.json");
+        Files.writeString(input, "{\"operator\": \"+\", \"operands\": [{\"file\": \"m.lmat\"}, [[1, 1], [1, 1]]]}");
+        ComputationNode root = new InputParser().parse(input.toString());
+        assertArrayEquals(new double[][]{{1, 2}, {3, 4}}, root.getChildren().get(0).getMatrix());
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws Exception {
+        Path file = dir.resolve("bad.lmat");
+        Files.writeString(file, "{\"result\" : [ [ 1.0 ] ] }\n............");
+        assertThrows(ParseException.class, () -> BinaryMatrixIO.read(file));
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import memory.*;
+import java.util.Random;
+
+public class BlockedMultiplyTest {
+    private static final double DELTA = 1e-9;
+
+    private static double[][] random(int rows, int cols, Random rnd) {
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                m[i][j] = rnd.nextInt(21) - 10;
+        return m;
+    }
+
+    private static double[][] naive(double[][] a, double[][] b) {
+        double[][] c = new double[a.length][b[0].length];
+        for (int i = 0; i < a.length; i++)
+            for (int j = 0; j < b[0].length; j++)
+                for (int k = 0; k < b.length; k++)
+                    c[i][j] += a[i][k] * b[k][j];
+        return c;
+    }
+
+    private static double[][] blocked(SharedMatrix left, SharedMatrix right, int parallelism) {
+        BlockedMatrixMultiply product = new BlockedMatrixMultiply(left, right);
+        for (Runnable task : product.createTileTasks(parallelism)) {
+            task.run();
+        }
+        return product.getResult().readRowMajor();
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], DELTA);
+        }
+    }
+
+    @Test
+    public void testOddShapesAcrossTileEdges() {
+        Random rnd = new Random(7);
+        int[][] shapes = {{1, 1, 1}, {3, 5, 2}, {7, 300, 9}, {66, 13, 5}, {5, 2, 70}};
+        for (int[] s : shapes) {
+            double[][] a = random(s[0], s[1], rnd);
+            double[][] b = random(s[1], s[2], rnd);
+            for (int parallelism : new int[]{1, 4, 16}) {
+                assertMatrixEquals(naive(a, b), blocked(new SharedMatrix(a), new SharedMatrix(b), parallelism));
+            }
+        }
+    }
+
+    @Test
+    public void testColumnMajorOperands() {
+        Random rnd = new Random(11);
+        double[][] a = random(9, 6, rnd);
+        double[][] b = random(6, 10, rnd);
+        SharedMatrix left = new SharedMatrix();
+        left.loadColumnMajor(a);
+        SharedMatrix right = new SharedMatrix();
+        right.loadColumnMajor(b);
+        assertMatrixEquals(naive(a, b), blocked(left, right, 3));
+    }
+
+    @Test
+    public void testDimensionMismatch() {
+        SharedMatrix a = new SharedMatrix(new double[][]{{1, 2}});
+        SharedMatrix b = new SharedMatrix(new double[][]{{1, 2}});
+        assertThrows(IllegalArgumentException.class, () -> new BlockedMatrixMultiply(a, b));
+    }
+}
@@ -0,0 +1,146 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import memory.*;
+import parser.*;
+import spl.lae.JobStats;
+import spl.lae.LinearAlgebraEngine;
+import spl.lae.ResultCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class CommonSubexpressionTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static double[][] filled(int rows, int cols, double start) {
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                m[i][j] = start + i * 0.5 - j;
+        return m;
+    }
+
+    private static ComputationNode op(String operator, ComputationNode... operands) {
+        return new ComputationNode(operator, new ArrayList<>(List.of(operands)));
+    }
+
+    // T(A) * B + (T(A) * B) * C, with every leaf a fresh copy
+    private static ComputationNode repeatedTree() {
+        ComputationNode first = op("*", op("T", new ComputationNode(filled(6, 4, 1))), new ComputationNode(filled(6, 4, 2)));
+        ComputationNode second = op("*", op("T", new ComputationNode(filled(6, 4, 1))), new ComputationNode(filled(6, 4, 2)));
+        return op("+", first, op("*", second, new ComputationNode(filled(4, 4, 3))));
+    }
+
+    private static double[][] reference() {
+        double[][] a = filled(6, 4, 1);
+        double[][] b = filled(6, 4, 2);
+        double[][] c = filled(4, 4, 3);
+        double[][] atb = new double[4][4];
+        for (int i = 0; i < 4; i++)
+            for (int j = 0; j < 4; j++)
+                for (int k = 0; k < 6; k++)
+                    atb[i][j] += a[k][i] * b[k][j];
+        double[][] expected = new double[4][4];
+        for (int i = 0; i < 4; i++)
+            for (int j = 0; j < 4; j++) {
+                expected[i][j] = atb[i][j];
+                for (int k = 0; k < 4; k++)
+                    expected[i][j] += atb[i][k] * c[k][j];
+            }
+        return expected;
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], DELTA);
+        }
+    }
+
+    @Test
+    public void testIdenticalSubtreesBecomeOneNode() {
+        ComputationNode root = repeatedTree();
+        int merged = new CommonSubexpressions().eliminate(root);
+        assertEquals(4, merged, "A, B, T(A) and the product of the second copy");
+        ComputationNode product = root.getChildren().get(0);
+        assertSame(product, root.getChildren().get(1).getChildren().get(0));
+        assertEquals(1, root.findAllResolvable().size(), "A shared subtree is collected once");
+
+        ComputationNode different = op("+", new ComputationNode(new double[][]{{1, 0.0}}), new ComputationNode(new double[][]{{1, -0.0}}));
+        assertEquals(0, new CommonSubexpressions().eliminate(different));
+    }
+
+    @Test
+    public void testSharedSubtreesComputeOnce() {
+        for (boolean parking : new boolean[]{false, true}) {
+            JobStats stats = new JobStats();
+            double[][] result;
+            try (LinearAlgebraEngine engine = new LinearAlgebraEngine(3)) {
+                engine.setParking(parking);
+                result = engine.run(repeatedTree(), stats).getMatrix();
+            }
+            assertMatrixEquals(reference(), result);
+            assertTrue(stats.getSharedNodes() > 0);
+            assertEquals(4, stats.getNodesComputed(), "T(A), T(A) * B, its product with C and the sum");
+        }
+    }
+
+    @Test
+    public void testFingerprintIgnoresStorageForm() {
+        double[][] data = {{1, 0, 2}, {0, 0, 3}};
+        SharedMatrix columnMajor = new SharedMatrix();
+        columnMajor.loadColumnMajor(data);
+        SparseMatrix sparse = SparseMatrix.fromRowMajor(new double[]{1, 0, 2, 0, 0, 3}, 2, 3);
+        ComputationNode root = op("+", new ComputationNode(data), new ComputationNode(columnMajor),
+                new ComputationNode(sparse.transposed().toRowCompressed().transposed()));
+        ComputationNode wide = new ComputationNode(new double[][]{{1, 0, 2, 0, 0, 3}});
+        Map<ComputationNode, Fingerprint> fingerprints = Fingerprint.of(root);
+        List<ComputationNode> operands = root.getChildren();
+        assertEquals(fingerprints.get(operands.get(0)), fingerprints.get(operands.get(1)));
+        assertEquals(fingerprints.get(operands.get(0)), fingerprints.get(operands.get(2)));
+        assertNotEquals(fingerprints.get(operands.get(0)), Fingerprint.of(wide).get(wide), "Same elements, other shape");
+        assertEquals(2, new CommonSubexpressions().eliminate(root), "Equal leaves are shared whatever their form");
+        assertSame(root.getChildren().get(0), root.getChildren().get(2));
+
+        ComputationNode ab = op("+", new ComputationNode(data), op("-", new ComputationNode(filled(2, 3, 0))));
+        ComputationNode ba = op("+", new ComputationNode(filled(2, 3, 0)), op("-", new ComputationNode(data)));
+        assertNotEquals(Fingerprint.of(ab).get(ab), Fingerprint.of(ba).get(ba));
+    }
+
+    @Test
+    public void testResultCacheAcrossJobs() {
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2)) {
+            ResultCache cache = new ResultCache(1 << 20);
+            engine.setResultCache(cache);
+            JobStats first = new JobStats();
+            assertMatrixEquals(reference(), engine.run(repeatedTree(), first).getMatrix());
+            assertEquals(0, first.getCacheHits());
+            assertEquals(3, cache.size(), "Every result but the transpose view");
+
+            JobStats second = new JobStats();
+            assertMatrixEquals(reference(), engine.run(repeatedTree(), second).getMatrix());
+            assertEquals(1, second.getCacheHits(), "The root is found at once");
+            assertEquals(0, second.getNodesComputed());
+
+            // A new root over a cached subtree only computes the root
+            ComputationNode bigger = op("-", repeatedTree());
+            JobStats third = new JobStats();
+            double[][] negated = engine.run(bigger, third).getMatrix();
+            assertEquals(-reference()[1][2], negated[1][2], DELTA);
+            assertEquals(1, third.getNodesComputed());
+        }
+
+        ResultCache small = new ResultCache(8 * 16 * 2);
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2)) {
+            engine.setResultCache(small);
+            for (int job = 0; job < 4; job++) {
+                engine.run(op("+", new ComputationNode(filled(4, 4, job)), new ComputationNode(filled(4, 4, 1))));
+            }
+        }
+        assertEquals(2, small.size());
+        assertEquals(2, small.getEvictions());
+        assertTrue(small.getSizeBytes() <= small.getCapacityBytes());
+    }
+}
@@ -1,6 +1,11 @@
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 import memory.*;
+import parser.ComputationNode;
+import spl.lae.LinearAlgebraEngine;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class DimensionErrorTest {
 
@@ -19,6 +24,27 @@ public class DimensionErrorTest {
         assertThrows(IllegalArgumentException.class, () -> v.vecMatMul(m));
     }
 
+    private static void assertIllegalOperation(ComputationNode root, String expected) {
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2)) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> engine.run(root));
+            assertEquals(expected, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testNegateWithTwoOperands() {
+        ComputationNode root = new ComputationNode("-", new ArrayList<>(List.of(
+                new ComputationNode(new double[][]{{1, 2}, {3, 4}}), new ComputationNode(new double[][]{{5, 6}, {7, 8}}))));
+        assertIllegalOperation(root, "Illegal operation: NEGATE takes 1 operand, got 2");
+    }
+
+    @Test
+    public void testMultiplyWithOneOperand() {
+        ComputationNode root = new ComputationNode("*", new ArrayList<>(List.of(
+                new ComputationNode(new double[][]{{1, 2}, {3, 4}}))));
+        assertIllegalOperation(root, "Illegal operation: MULTIPLY takes 2 operands, got 1");
+    }
+
     @Test
     public void testEmptyMatrixOperations() {
         SharedMatrix empty = new SharedMatrix(new double[0][0]);
@@ -0,0 +1,123 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import parser.*;
+import spl.lae.LinearAlgebraEngine;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ExpressionOptimizerTest {
+    private static final double DELTA = 1e-9;
+
+    private static double[][] filled(int rows, int cols, double start) {
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                m[i][j] = start + i - j;
+        return m;
+    }
+
+    private static ComputationNode op(String operator, ComputationNode... operands) {
+        return new ComputationNode(operator, new ArrayList<>(List.of(operands)));
+    }
+
+    @Test
+    public void testChainIsReorderedByCost() {
+        // (A*B)*C costs 75000 multiplications, A*(B*C) only 7500
+        ComputationNode root = op("*", new ComputationNode(filled(50, 5, 1)),
+                new ComputationNode(filled(5, 100, 2)), new ComputationNode(filled(100, 10, 3)));
+        new ExpressionOptimizer().optimize(root);
+        assertEquals(ComputationNodeType.MATRIX, root.getChildren().get(0).getNodeType());
+        assertEquals(ComputationNodeType.MULTIPLY, root.getChildren().get(1).getNodeType());
+    }
+
+    @Test
+    public void testDoubleNegationAndTransposeCancel() {
+        double[][] m = {{1, 2}, {3, 4}};
+        ComputationNode negations = op("-", op("-", new ComputationNode(m)));
+        new ExpressionOptimizer().optimize(negations);
+        assertEquals(ComputationNodeType.MATRIX, negations.getNodeType());
+
+        ComputationNode transposes = op("T", op("T", new ComputationNode(m)));
+        new ExpressionOptimizer().optimize(transposes);
+        assertEquals(ComputationNodeType.MATRIX, transposes.getNodeType());
+    }
+
+    @Test
+    public void testAddOfNegationBecomesSubtract() {
+        double[][] m = {{1, 2}, {3, 4}};
+        ComputationNode root = op("+", new ComputationNode(m), op("-", new ComputationNode(m)));
+        new ExpressionOptimizer().optimize(root);
+        assertEquals(ComputationNodeType.LINEAR_COMBINATION, root.getNodeType());
+        assertArrayEquals(new double[]{1, -1}, root.getCoefficients(), DELTA);
+    }
+
+    @Test
+    public void testElementwiseChainIsFusedIntoOneNode() {
+        double[][] m = {{1, 2}, {3, 4}};
+        ComputationNode product = op("*", new ComputationNode(m), new ComputationNode(m));
+        // A + B + T(C) + (-(D * E)) becomes one node over A, B, C and the product
+        ComputationNode root = op("+", new ComputationNode(m), new ComputationNode(m),
+                op("T", new ComputationNode(m)), op("-", product));
+        new ExpressionOptimizer().optimize(root);
+        assertEquals(ComputationNodeType.LINEAR_COMBINATION, root.getNodeType());
+        assertEquals(4, root.getChildren().size());
+        assertArrayEquals(new boolean[]{false, false, true, false}, root.getTransposed());
+        assertEquals(ComputationNodeType.MULTIPLY, root.getChildren().get(3).getNodeType());
+        assertEquals(1, root.findAllResolvable().size(), "Only the product has to be computed first");
+    }
+
+    @Test
+    public void testOptimizedTreeComputesTheSameResult() {
+        double[][] a = filled(3, 4, 1);
+        double[][] b = filled(4, 2, 5);
+        double[][] c = filled(2, 3, -2);
+        // -(A * B * C) + T(T((-A) * (-B) * C)) is the zero matrix
+        ComputationNode root = op("+",
+                op("-", op("*", new ComputationNode(a), new ComputationNode(b), new ComputationNode(c))),
+                op("T", op("T", op("*", op("-", new ComputationNode(a)), op("-", new ComputationNode(b)), new ComputationNode(c)))));
+        double[][] result;
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2)) {
+            result = engine.run(root).getMatrix();
+        }
+        assertEquals(3, result.length);
+        for (double[] row : result) {
+            assertArrayEquals(new double[3], row, DELTA);
+        }
+    }
+
+    @Test
+    public void testSubtractValues() {
+        double[][] a = {{5, 7}, {9, 11}};
+        double[][] b = {{1, 2}, {3, 4}};
+        ComputationNode root = op("+", op("-", new ComputationNode(b)), new ComputationNode(a));
+        double[][] result;
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2)) {
+            result = engine.run(root).getMatrix();
+        }
+        assertArrayEquals(new double[]{4, 5}, result[0], DELTA);
+        assertArrayEquals(new double[]{6, 7}, result[1], DELTA);
+    }
+
+    @Test
+    public void testNegatedCancellationKeepsNegativeZero() {
+        double[][] a = {{1.5, -2}, {0.25, 3}};
+        // A == B: each sum cancels to +0.0, so its negation is -0.0 everywhere
+        List<ComputationNode> roots = List.of(
+                op("-", op("+", new ComputationNode(a), op("-", new ComputationNode(a)))),
+                op("-", op("+", op("-", new ComputationNode(a)), new ComputationNode(a))),
+                op("T", op("-", op("+", new ComputationNode(a), op("-", op("T", op("T", new ComputationNode(a))))))));
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2)) {
+            for (ComputationNode root : roots) {
+                double[][] result = engine.run(root).getMatrix();
+                for (double[] row : result) {
+                    assertArrayEquals(new double[]{-0.0, -0.0}, row, "Signed zeros are compared exactly");
+                }
+            }
+        }
+        // Without the outer negation the sum stays +0.0
+        ComputationNode sum = op("+", new ComputationNode(a), op("-", new ComputationNode(a)));
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2)) {
+            assertArrayEquals(new double[]{0.0, 0.0}, engine.run(sum).getMatrix()[0]);
+        }
+    }
+}
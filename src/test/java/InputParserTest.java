@@ -0,0 +1,49 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import parser.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+public class InputParserTest {
+
+    @TempDir
+    Path dir;
+
+    private ComputationNode parse(String json) throws Exception {
+        Path file = dir.resolve("input.json");
+        Files.writeString(file, json);
+        return new InputParser().parse(file.toString());
+    }
+
+    private String parseError(String json) {
+        return assertThrows(ParseException.class, () -> parse(json)).getMessage();
+    }
+
+    @Test
+    public void testMatrixLeaf() throws Exception {
+        ComputationNode node = parse("[[1, 2.5, -3], [4, 5e1, 6]]");
+        assertEquals(ComputationNodeType.MATRIX, node.getNodeType());
+        assertArrayEquals(new double[][]{{1, 2.5, -3}, {4, 50, 6}}, node.getMatrix());
+    }
+
+    @Test
+    public void testOperandsBeforeOperator() throws Exception {
+        ComputationNode node = parse("{\"operands\": [[[1]], [[2]]], \"operator\": \"+\"}");
+        assertEquals(ComputationNodeType.ADD, node.getNodeType());
+        assertEquals(2, node.getChildren().size());
+        assertArrayEquals(new double[][]{{2}}, node.getChildren().get(1).getMatrix());
+    }
+
+    @Test
+    public void testValidationMessages() {
+        assertEquals("Empty array cannot be parsed as DataNode.", parseError("[]"));
+        assertEquals("Vectors (1D arrays) are not supported as standalone nodes.", parseError("[1, 2]"));
+        assertEquals("Inconsistent row sizes in matrix.", parseError("[[1, 2], [3]]"));
+        assertTrue(parseError("[[1], 2]").startsWith("Invalid matrix row:"));
+        assertTrue(parseError("{\"operator\": \"+\"}").startsWith("Invalid node structure:"));
+        assertTrue(parseError("42").startsWith("Invalid node structure:"));
+    }
+}
@@ -0,0 +1,181 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import memory.*;
+import parser.*;
+import spl.lae.JobServer;
+import spl.lae.LinearAlgebraEngine;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JobServerTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    private static Map<String, JsonNode> byId(String responses) throws Exception {
+        Map<String, JsonNode> result = new HashMap<>();
+        for (String line : responses.split("\n")) {
+            JsonNode response = mapper.readTree(line);
+            result.put(response.get("id").asText(), response);
+        }
+        return result;
+    }
+
+    @Test
+    public void testStreamOfJobs() throws Exception {
+        Path input = dir.resolve("in.lmat");
+        BinaryMatrixIO.write(new SharedMatrix(new double[][]{{1, 2}, {3, 4}}), input);
+        Path output = dir.resolve("out.json");
+        String requests = String.join("\n",
+                "{\"id\": \"sum\", \"expression\": {\"operator\": \"+\", \"operands\": [[[1, 2]], [[10, 20]]]}}",
+                "",
+                "{\"expression\": {\"operator\": \"*\", \"operands\": [[[1, 2]], [[3], [4]]]}, \"id\": 7}",
+                "{\"id\": \"file\", \"input\": \"in.lmat\", \"output\": \"out.json\", \"compact\": true}",
+                "{\"id\": \"badé\", \"expression\": {\"operator\": \"+\", \"operands\": [[[1]], [[1, 2]]]}}",
+                "not json",
+                "{\"id\": \"neither\"}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+             JobServer server = new JobServer(engine, 3, 1, dir)) {
+            server.serve(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), Channels.newChannel(out));
+        }
+
+        String text = out.toString(StandardCharsets.US_ASCII);
+        assertEquals(6, text.split("\n").length);
+        assertTrue(text.contains("{\"id\":7,\"result\":[[11.0]]}"), text);
+        Map<String, JsonNode> responses = byId(text);
+        assertEquals("[[11.0,22.0]]", responses.get("sum").get("result").toString());
+        assertEquals("out.json", responses.get("file").get("output").asText());
+        assertEquals("{\"result\":[[1.0,2.0],[3.0,4.0]]}", Files.readString(output));
+        assertTrue(responses.get("badé").get("error").asText().startsWith("Runtime error"));
+        assertTrue(responses.get("6").get("error").asText().startsWith("Parse error: Invalid request"), "line number as id");
+        assertTrue(responses.get("neither").get("error").asText().contains("exactly one"));
+    }
+
+    @Test
+    public void testPipelinedJobsOverSocket() throws Exception {
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(3);
+             JobServer server = new JobServer(engine, 2);
+             ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.serve(listener);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            acceptor.start();
+
+            StringBuilder requests = new StringBuilder();
+            for (int job = 0; job < 20; job++) {
+                requests.append("{\"id\": ").append(job).append(", \"expression\": {\"operator\": \"*\", \"operands\": [[[")
+                        .append(job).append("]], [[2]]]}}\n");
+            }
+            try (SocketChannel client = SocketChannel.open(listener.getLocalAddress())) {
+                ByteBuffer bytes = ByteBuffer.wrap(requests.toString().getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()) {
+                    client.write(bytes);
+                }
+                client.shutdownOutput();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+                StringBuilder responses = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    responses.append(line).append('\n');
+                }
+                Map<String, JsonNode> results = byId(responses.toString());
+                assertEquals(20, results.size());
+                for (int job = 0; job < 20; job++) {
+                    assertEquals(2.0 * job, results.get(Integer.toString(job)).get("result").get(0).get(0).asDouble());
+                }
+            }
+            listener.close();
+            acceptor.join();
+        }
+    }
+
+    @Test
+    public void testPathsStayInsideTheRoot() throws Exception {
+        Path root = Files.createDirectories(dir.resolve("root"));
+        BinaryMatrixIO.write(new SharedMatrix(new double[][]{{1}}), dir.resolve("secret.lmat"));
+        BinaryMatrixIO.write(new SharedMatrix(new double[][]{{2}}), root.resolve("ok.lmat"));
+        Files.createSymbolicLink(root.resolve("link"), dir);
+        String secret = dir.resolve("secret.lmat").toString().replace("\\", "\\\\");
+        String requests = String.join("\n",
+                "{\"id\": \"absolute\", \"input\": \"" + secret + "\"}",
+                "{\"id\": \"up\", \"input\": \"../secret.lmat\"}",
+                "{\"id\": \"link\", \"input\": \"link/secret.lmat\"}",
+                "{\"id\": \"write\", \"input\": \"ok.lmat\", \"output\": \"../out.json\"}",
+                "{\"id\": \"leaf\", \"expression\": {\"operator\": \"-\", \"operands\": [{\"file\": \"../secret.lmat\"}]}}",
+                "{\"id\": \"ok\", \"expression\": {\"operator\": \"-\", \"operands\": [{\"file\": \"ok.lmat\"}]}}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+             JobServer server = new JobServer(engine, 2, 1, root)) {
+            server.serve(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), Channels.newChannel(out));
+        }
+        Map<String, JsonNode> responses = byId(out.toString(StandardCharsets.US_ASCII));
+        for (String id : new String[]{"absolute", "up", "link", "write", "leaf"}) {
+            assertTrue(responses.get(id).get("error").asText().startsWith("Parse error: Invalid"), id + ": " + responses.get(id));
+        }
+        assertEquals("[[-2.0]]", responses.get("ok").get("result").toString());
+        assertFalse(Files.exists(dir.resolve("out.json")));
+    }
+
+    @Test
+    public void testConnectionsWaitForAFreeSlot() throws Exception {
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+             JobServer server = new JobServer(engine, 1, 1, dir);
+             ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.serve(listener);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            acceptor.start();
+            byte[] request = "{\"id\": 1, \"expression\": [[1]]}\n".getBytes(StandardCharsets.UTF_8);
+            try (SocketChannel first = SocketChannel.open(listener.getLocalAddress());
+                 SocketChannel second = SocketChannel.open(listener.getLocalAddress())) {
+                first.write(ByteBuffer.wrap(request));
+                BufferedReader firstReader = new BufferedReader(new InputStreamReader(Channels.newInputStream(first), StandardCharsets.UTF_8));
+                assertEquals("{\"id\":1,\"result\":[[1.0]]}", firstReader.readLine());
+
+                // The only slot is taken by the first connection, so the second is not served yet
+                second.write(ByteBuffer.wrap(request));
+                second.configureBlocking(false);
+                Thread.sleep(200);
+                assertEquals(0, second.read(ByteBuffer.allocate(64)), "Not accepted while the slot is taken");
+                second.configureBlocking(true);
+
+                first.shutdownOutput();
+                assertNull(firstReader.readLine());
+                BufferedReader secondReader = new BufferedReader(new InputStreamReader(Channels.newInputStream(second), StandardCharsets.UTF_8));
+                assertEquals("{\"id\":1,\"result\":[[1.0]]}", secondReader.readLine());
+            }
+            listener.close();
+            acceptor.join();
+        }
+    }
+}
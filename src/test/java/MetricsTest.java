@@ -0,0 +1,112 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import metrics.*;
+import parser.ComputationNode;
+import scheduling.ExecutionMode;
+import spl.lae.LinearAlgebraEngine;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MetricsTest {
+
+    private static double[][] filled(int rows, int cols) {
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++)
+            for (int j = 0; j < cols; j++)
+                m[i][j] = i - 0.5 * j;
+        return m;
+    }
+
+    // (A * B) + C with A 64x32 and B 32x48
+    private static ComputationNode job() {
+        ComputationNode product = new ComputationNode("*", new ArrayList<>(List.of(
+                new ComputationNode(filled(64, 32)), new ComputationNode(filled(32, 48)))));
+        return new ComputationNode("+", new ArrayList<>(List.of(product, new ComputationNode(filled(64, 48)))));
+    }
+
+    @Test
+    public void testHistogramBuckets() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        long median = histogram.quantile(0.5);
+        assertTrue(median >= 500_000 && median <= 500_000 * 1.25, "Within one bucket: " + median);
+        assertEquals(1_000_000, histogram.quantile(1.0));
+        assertEquals(0, histogram.countBelowPowerOfTwo(9));
+        assertEquals(1000, histogram.countBelowPowerOfTwo(20));
+    }
+
+    @Test
+    public void testEngineRecordsNodesAndDispatch(@TempDir Path dir) throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            Metrics metrics = new Metrics();
+            metrics.enableTrace(10_000);
+            try (LinearAlgebraEngine engine = new LinearAlgebraEngine(3, mode)) {
+                engine.setChunkSize(8);
+                engine.setMetrics(metrics);
+                engine.run(job());
+                engine.run(job());
+            }
+            assertEquals(2, metrics.getJobDuration().getCount());
+            assertEquals(2L * 2 * 64 * 32 * 48, metrics.getFlops("MULTIPLY"));
+            assertEquals(2L * 2 * 2 * 64 * 48, metrics.getFlops("LINEAR_COMBINATION"));
+            long tasks = metrics.getTaskDuration().getCount();
+            assertTrue(tasks > 2, mode + ": tasks of both nodes are measured");
+            assertEquals(tasks, metrics.getQueueWait().getCount());
+            assertEquals(tasks, metrics.getHandoffLatency().getCount());
+            assertTrue(metrics.getHandoffLatency().getSum() <= metrics.getQueueWait().getSum(), "A handoff is part of the queue wait");
+
+            long busy = 0;
+            for (int worker = 0; worker < metrics.getTimeline().getWorkers(); worker++) {
+                busy += metrics.getTimeline().getBusyNanos(worker);
+            }
+            assertTrue(busy > 0 || mode == ExecutionMode.WORK_STEALING, "Stolen tasks may all run on the submitter");
+
+            JsonNode json = new ObjectMapper().readTree(metrics.toJson());
+            assertEquals(2, json.at("/operators/MULTIPLY/nodes").asLong());
+            assertEquals(4, json.get("recent_nodes").size());
+            assertEquals(3, json.at("/workers/utilization").size());
+
+            String prometheus = metrics.toPrometheus();
+            assertTrue(prometheus.contains("lae_node_flops_total{op=\"MULTIPLY\"} " + 2L * 2 * 64 * 32 * 48));
+            assertTrue(prometheus.contains("lae_queue_wait_seconds_count " + tasks));
+            assertTrue(prometheus.contains("lae_worker_busy_seconds_total{worker=\"2\"}"));
+
+            Path trace = dir.resolve(mode + ".trace.json");
+            metrics.writeTrace(trace);
+            JsonNode events = new ObjectMapper().readTree(Files.readString(trace)).get("traceEvents");
+            int spans = 0;
+            for (JsonNode event : events) {
+                if (event.get("ph").asText().equals("X")) {
+                    spans++;
+                }
+            }
+            assertEquals(2 + 4 + tasks, spans, "Jobs, rounds and tasks");
+        }
+    }
+
+    @Test
+    public void testUtilizationWindows() {
+        UtilizationTimeline timeline = new UtilizationTimeline(2, 1_000_000, 4);
+        long now = System.nanoTime();
+        timeline.addBusy(1, now, now + 1_500_000);
+        assertEquals(1_500_000, timeline.getBusyNanos(1));
+        assertEquals(0, timeline.getBusyNanos(0));
+        double[] windows = timeline.utilization(1, now + 1_500_000);
+        double total = 0;
+        for (double fraction : windows) {
+            assertTrue(fraction >= 0 && fraction <= 1);
+            total += fraction;
+        }
+        assertEquals(1.5, total, 1e-9);
+    }
+}
@@ -0,0 +1,62 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import memory.*;
+import parser.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class OutputWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private String jackson(double[][] matrix) throws Exception {
+        Path file = dir.resolve("jackson.json");
+        new ObjectMapper().writerWithDefaultPrettyPrinter()
+                .writeValue(file.toFile(), new OutputWriter.ResultMatrix(matrix));
+        return Files.readString(file);
+    }
+
+    private String streamed(SharedMatrix matrix, boolean compact) throws Exception {
+        Path file = dir.resolve("streamed.json");
+        OutputWriter.write(matrix, file.toString(), compact);
+        return Files.readString(file);
+    }
+
+    @Test
+    public void testPrettyMatchesJackson() throws Exception {
+        double[][][] cases = {
+            {{-28, -31}, {-106, -118}},
+            {{0.1, 1e-7, 1.0E22, -0.0}},
+            {{Double.NaN}, {Double.POSITIVE_INFINITY}},
+            {{}, {}},
+            {},
+        };
+        for (double[][] matrix : cases) {
+            assertEquals(jackson(matrix), streamed(new SharedMatrix(matrix), false));
+        }
+    }
+
+    @Test
+    public void testColumnMajorWrittenAsRows() throws Exception {
+        SharedMatrix m = new SharedMatrix();
+        m.loadColumnMajor(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        assertEquals(jackson(new double[][]{{1, 2, 3}, {4, 5, 6}}), streamed(m, false));
+    }
+
+    @Test
+    public void testCompactReadsBack() throws Exception {
+        double[][] matrix = {{1.5, -2}, {3, 0.30000000000000004}};
+        String json = streamed(new SharedMatrix(matrix), true);
+        assertFalse(json.contains(" "));
+        OutputWriter.ResultMatrix read = new ObjectMapper().readerFor(ResultHolder.class).readValue(json);
+        assertArrayEquals(matrix, read.result);
+    }
+
+    public static class ResultHolder extends OutputWriter.ResultMatrix {
+        public ResultHolder() { super(null); }
+    }
+}
@@ -0,0 +1,229 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import memory.*;
+import parser.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+public class SparseMatrixTest {
+
+    private static final double DELTA = 1e-9;
+
+    @TempDir
+    Path dir;
+
+    private static double[][] randomSparse(int rows, int cols, double density, long seed) {
+        Random random = new Random(seed);
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                if (random.nextDouble() < density) {
+                    m[i][j] = random.nextInt(9) - 4;
+                }
+            }
+        }
+        return m;
+    }
+
+    private static SparseMatrix sparse(double[][] m) {
+        int cols = m[0].length;
+        double[] storage = new double[m.length * cols];
+        for (int i = 0; i < m.length; i++) {
+            System.arraycopy(m[i], 0, storage, i * cols, cols);
+        }
+        return SparseMatrix.fromRowMajor(storage, m.length, cols);
+    }
+
+    private static double[][] denseProduct(double[][] a, double[][] b) {
+        BlockedMatrixMultiply product = new BlockedMatrixMultiply(new SharedMatrix(a), new SharedMatrix(b));
+        product.createTileTasks(1).forEach(Runnable::run);
+        return product.getResult().readRowMajor();
+    }
+
+    private static void assertMatrixEquals(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], DELTA);
+        }
+    }
+
+    @Test
+    public void testTripletsSumDuplicatesAndSortColumns() {
+        SparseMatrix m = SparseMatrix.fromTriplets(2, 3,
+                new int[]{1, 0, 1, 0}, new int[]{2, 1, 0, 1}, new double[]{5, 1, 4, 2}, 4);
+        assertEquals(3, m.nonZeros());
+        assertMatrixEquals(new double[][]{{0, 3, 0}, {4, 0, 5}}, m.toDense().readRowMajor());
+        assertThrows(IllegalArgumentException.class, () -> SparseMatrix.fromTriplets(2, 2,
+                new int[]{2}, new int[]{0}, new double[]{1}, 1));
+    }
+
+    @Test
+    public void testTransposedIsCompressedColumns() {
+        double[][] a = randomSparse(5, 7, 0.3, 1);
+        SparseMatrix t = sparse(a).transposed();
+        assertFalse(t.isRowCompressed());
+        assertEquals(7, t.rowCount());
+        double[][] expected = new SharedMatrix(a).transposed().readRowMajor();
+        assertMatrixEquals(expected, t.toDense().readRowMajor());
+        assertMatrixEquals(expected, t.toRowCompressed().toDense().readRowMajor());
+    }
+
+    @Test
+    public void testProductsMatchDenseKernel() {
+        double[][] a = randomSparse(37, 23, 0.1, 2);
+        double[][] b = randomSparse(23, 19, 0.1, 3);
+        double[][] expected = denseProduct(a, b);
+
+        SparseMultiply sparseDense = new SparseMultiply(sparse(a), new SharedMatrix(b));
+        sparseDense.createRowTasks(8).forEach(Runnable::run);
+        assertMatrixEquals(expected, sparseDense.getResult().readRowMajor());
+
+        SparseMultiply denseSparse = new SparseMultiply(new SharedMatrix(a), sparse(b).transposed().transposed());
+        denseSparse.createRowTasks(5).forEach(Runnable::run);
+        assertMatrixEquals(expected, denseSparse.getResult().readRowMajor());
+
+        SparseMultiply both = new SparseMultiply(sparse(a), sparse(b));
+        both.createRowTasks(6).forEach(Runnable::run);
+        assertTrue(both.isSparseResult());
+        assertMatrixEquals(expected, both.getSparseResult().toDense().readRowMajor());
+
+        assertThrows(IllegalArgumentException.class, () -> new SparseMultiply(sparse(a), sparse(a)));
+    }
+
+    @Test
+    public void testSparsePlusDense() {
+        double[][] a = randomSparse(9, 6, 0.2, 4);
+        double[][] b = randomSparse(6, 9, 0.9, 5);
+        FusedElementwise sum = new FusedElementwise(List.of(new SharedMatrix(b).transposed()), new double[]{2},
+                List.of(sparse(a)), new double[]{-1});
+        sum.createRowTasks(4).forEach(Runnable::run);
+        double[][] result = sum.getResult().readRowMajor();
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 6; j++) {
+                assertEquals(2 * b[j][i] - a[i][j], result[i][j], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testParserPicksSparseByDensity() throws Exception {
+        double[][] mostlyZero = randomSparse(80, 80, 0.02, 6);
+        Path input = dir.resolve("sparse.json");
+        Files.writeString(input, new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(mostlyZero));
+        assertFalse(new InputParser().parse(input.toString()).isSparse(), "Only triplets are sparse by default");
+        InputParser autoSparse = new InputParser();
+        autoSparse.setAutoSparse(true);
+        ComputationNode leaf = autoSparse.parse(input.toString());
+        assertTrue(leaf.isSparse());
+        assertMatrixEquals(mostlyZero, leaf.getMatrix());
+
+        Files.writeString(input, "{\"rows\": 2, \"cols\": 2, \"entries\": [[1, 0, 3.5]]}");
+        ComputationNode small = new InputParser().parse(input.toString());
+        assertFalse(small.isSparse(), "Too small to be worth keeping sparse");
+        assertMatrixEquals(new double[][]{{0, 0}, {3.5, 0}}, small.getMatrix());
+
+        Files.writeString(input, "{\"entries\": [[999, 0, 1], [0, 999, 2]], \"rows\": 1000, \"cols\": 1000}");
+        ComputationNode triplets = new InputParser().parse(input.toString());
+        assertTrue(triplets.isSparse());
+        assertEquals(2, triplets.getSparseMatrix().nonZeros());
+
+        Files.writeString(input, "{\"rows\": 2, \"cols\": 2, \"entries\": [[1, 0]]}");
+        assertThrows(java.text.ParseException.class, () -> new InputParser().parse(input.toString()));
+    }
+
+    @Test
+    public void testEngineMixesSparseAndDense() {
+        double[][] a = randomSparse(30, 30, 0.05, 7);
+        double[][] b = randomSparse(30, 30, 0.05, 8);
+        double[][] c = randomSparse(30, 30, 0.8, 9);
+        double[][] expected = null;
+        for (boolean useSparse : new boolean[]{false, true}) {
+            ComputationNode na = useSparse ? new ComputationNode(sparse(a)) : new ComputationNode(a);
+            ComputationNode nb = useSparse ? new ComputationNode(sparse(b)) : new ComputationNode(b);
+            // (A * B^T) * C + (-A)
+            ComputationNode product = new ComputationNode("*", List.of(na, new ComputationNode("T", List.of(nb))));
+            ComputationNode root = new ComputationNode("+", List.of(
+                    new ComputationNode("*", List.of(product, new ComputationNode(c))),
+                    new ComputationNode("-", List.of(useSparse ? new ComputationNode(sparse(a)) : new ComputationNode(a)))));
+            double[][] result;
+            try (spl.lae.LinearAlgebraEngine engine = new spl.lae.LinearAlgebraEngine(3)) {
+                result = engine.run(root).getMatrix();
+            }
+            if (expected == null) {
+                expected = result;
+            }
+            else {
+                assertMatrixEquals(expected, result);
+            }
+        }
+    }
+
+    // A 70x70 matrix written out in full: big enough to be made sparse when mostly zeros
+    private static String matrixJson(java.util.function.BiFunction<Integer, Integer, String> element) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 70; i++) {
+            json.append(i == 0 ? "[" : ",[");
+            for (int j = 0; j < 70; j++) {
+                json.append(j == 0 ? "" : ",").append(element.apply(i, j));
+            }
+            json.append("]");
+        }
+        return json.append("]").toString();
+    }
+
+    private static String operation(String operator, String... operands) {
+        return "{\"operator\": \"" + operator + "\", \"operands\": [" + String.join(",", operands) + "]}";
+    }
+
+    private static boolean hasSparseLeaf(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            return node.isSparse();
+        }
+        return node.getChildren().stream().anyMatch(SparseMatrixTest::hasSparseLeaf);
+    }
+
+    private byte[] evaluate(String expression, boolean autoSparse) throws Exception {
+        Path input = dir.resolve("input.json");
+        Path output = dir.resolve(autoSparse ? "sparse.out.json" : "dense.out.json");
+        Files.writeString(input, expression);
+        InputParser parser = new InputParser();
+        parser.setAutoSparse(autoSparse);
+        ComputationNode root = parser.parse(input.toString());
+        assertEquals(autoSparse, hasSparseLeaf(root));
+        try (spl.lae.LinearAlgebraEngine engine = new spl.lae.LinearAlgebraEngine(2)) {
+            OutputWriter.write(engine.run(root).getSharedMatrix(), output.toString());
+        }
+        return Files.readAllBytes(output);
+    }
+
+    @Test
+    public void testSparseAndDensePathsWriteTheSameBytes() throws Exception {
+        String identity = matrixJson((i, j) -> i.equals(j) ? "1" : "0");
+        String signedZeros = matrixJson((i, j) -> (i + j) % 29 == 0 ? "-0.0" : (i * j) % 31 == 1 ? "3" : "0");
+        String cancelling = matrixJson((i, j) -> (i * j) % 31 == 1 ? "3" : (i + 2 * j) % 29 == 0 ? "-0.0" : "0");
+        String denseWithZeros = matrixJson((i, j) -> (i + j) % 3 == 0 ? "-0.0" : (i + j) % 3 == 1 ? "0" : "2");
+        String huge = matrixJson((i, j) -> i == 3 && j == 4 ? "1e200" : "0");
+        String hugeRight = matrixJson((i, j) -> i == 4 && j == 9 ? "1e200" : "0");
+        String zeroRows = matrixJson((i, j) -> i == j && i % 2 == 0 ? "1" : "0");
+        List<String> expressions = List.of(
+                operation("-", identity),
+                operation("+", signedZeros, operation("-", cancelling)),
+                operation("+", denseWithZeros, signedZeros),
+                operation("+", operation("-", signedZeros), denseWithZeros),
+                operation("*", zeroRows, operation("*", huge, hugeRight)),
+                operation("*", signedZeros, operation("T", cancelling)));
+        for (String expression : expressions) {
+            byte[] dense = evaluate(expression, false);
+            byte[] sparse = evaluate(expression, true);
+            assertArrayEquals(dense, sparse, expression.substring(0, 40));
+        }
+        String negated = new String(evaluate(expressions.get(0), true), java.nio.charset.StandardCharsets.UTF_8);
+        assertTrue(negated.contains("-0.0") && negated.contains("-1.0"), "Signed zeros survive a sparse negation");
+        String overflow = new String(evaluate(expressions.get(4), true), java.nio.charset.StandardCharsets.UTF_8);
+        assertTrue(overflow.contains("NaN"), "0 * Inf is NaN on the sparse path too");
+    }
+}
@@ -2,7 +2,15 @@ import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 import spl.lae.LinearAlgebraEngine;
 import parser.ComputationNode;
+import scheduling.DispatchPolicy;
+import scheduling.ExecutionMode;
+import scheduling.TaskBatch;
+import scheduling.TiredExecutor;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ThreadEfficiencyTest {
 
@@ -44,4 +52,274 @@ public class ThreadEfficiencyTest {
         // Fatigue shouldn't be zero if work was actually done
         assertFalse(report.contains("Average Fatigue: 0.00"), "Fatigue should accumulate after tasks");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWorkStealingRunsEveryTask() throws InterruptedException {
+        TiredExecutor executor = new TiredExecutor(3, ExecutionMode.WORK_STEALING);
+        AtomicInteger done = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            tasks.add(done::incrementAndGet);
+        }
+        executor.submitAll(tasks);
+        assertEquals(2000, done.get(), "submitAll must not return before every task ran");
+        String report = executor.getWorkerReport();
+        executor.shutdown();
+        assertTrue(report.contains("Worker 2") && report.contains("Fairness Score"));
+    }
+
+    @Test
+    public void testBatchesCompleteOnTheirOwn() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            TiredExecutor executor = new TiredExecutor(3, mode);
+            CountDownLatch release = new CountDownLatch(1);
+            TaskBatch blocked = executor.submit(() -> {
+                try{
+                    release.await();
+                }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            });
+            AtomicInteger done = new AtomicInteger();
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                tasks.add(done::incrementAndGet);
+            }
+            executor.submitAll(tasks);
+            assertEquals(100, done.get(), mode + ": a batch does not wait for another caller's tasks");
+            assertFalse(blocked.isDone());
+
+            CountDownLatch continued = new CountDownLatch(1);
+            blocked.future().thenRun(continued::countDown);
+            release.countDown();
+            assertTrue(continued.await(5, TimeUnit.SECONDS), mode + ": continuation runs once the batch is done");
+
+            List<Runnable> failing = new ArrayList<>(tasks);
+            failing.add(() -> { throw new IllegalArgumentException("bad row"); });
+            IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> executor.submitAll(failing));
+            assertEquals("bad row", thrown.getMessage());
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailureSkipsUnstartedTasks() throws Exception {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            TiredExecutor executor = new TiredExecutor(2, mode);
+            AtomicInteger ran = new AtomicInteger();
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch unblock = new CountDownLatch(1);
+            AtomicInteger gaveUp = new AtomicInteger();
+            List<Runnable> tasks = new ArrayList<>();
+            // Holds a worker until the failure has been reported; gives up only if await waited for it
+            tasks.add(() -> {
+                blocked.countDown();
+                try{
+                    if (!unblock.await(10, TimeUnit.SECONDS)) {
+                        gaveUp.incrementAndGet();
+                    }
+                }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            });
+            tasks.add(() -> {
+                try{
+                    blocked.await();
+                }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("first");
+            });
+            for (int i = 0; i < 1000; i++) {
+                tasks.add(() -> {
+                    ran.incrementAndGet();
+                    try{
+                        Thread.sleep(1);
+                    }
+                    catch(InterruptedException e){
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            TaskBatch failing = executor.submitBatch(tasks);
+            IllegalStateException thrown = assertThrows(IllegalStateException.class, failing::await);
+            assertEquals("first", thrown.getMessage());
+            assertEquals(1, unblock.getCount(), mode + ": the failure is rethrown while a sibling still runs");
+            assertEquals(0, gaveUp.get(), mode + ": await did not wait for the blocked sibling");
+            unblock.countDown();
+            assertTrue(ran.get() < 1000, mode + ": siblings that had not started are skipped");
+
+            CountDownLatch release = new CountDownLatch(1);
+            List<Runnable> waiting = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                waiting.add(() -> {
+                    try{
+                        release.await();
+                    }
+                    catch(InterruptedException e){
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            TaskBatch batch = executor.submitBatch(waiting);
+            assertTrue(batch.cancel());
+            assertTrue(batch.isDone() && batch.isFailed());
+            assertThrows(java.util.concurrent.CancellationException.class, batch::await);
+            release.countDown();
+            executor.submitAll(List.of(ran::incrementAndGet));
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancelAfterSuccessKeepsTheBatchSucceeded() throws InterruptedException {
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            TiredExecutor executor = new TiredExecutor(2, mode);
+            AtomicInteger ran = new AtomicInteger();
+            TaskBatch batch = executor.submitBatch(List.of(ran::incrementAndGet, ran::incrementAndGet));
+            batch.await();
+            assertFalse(batch.cancel(), mode + ": a finished batch cannot be cancelled");
+            assertFalse(batch.isFailed());
+            assertNull(batch.getFailure());
+            batch.await();
+            assertEquals(2, ran.get());
+
+            TaskBatch failing = executor.submit(() -> { throw new IllegalStateException("boom"); });
+            assertThrows(IllegalStateException.class, failing::await);
+            assertFalse(failing.cancel(), mode + ": the first failure sticks");
+            assertEquals("boom", failing.getFailure().getMessage());
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownDuringBatchReleasesWaiters() throws Exception {
+        TiredExecutor executor = new TiredExecutor(1, ExecutionMode.WORK_STEALING);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            started.countDown();
+            try{
+                release.await();
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 8; i++) {
+            tasks.add(ran::incrementAndGet);
+        }
+        TaskBatch batch = executor.submitBatch(tasks);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Thread closer = new Thread(() -> {
+            try{
+                executor.shutdown();
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        });
+        closer.start();
+        while (closer.getState() != Thread.State.WAITING && closer.isAlive()) {
+            Thread.sleep(1); // Until it is joining the worker, which is stuck in the first task
+        }
+        release.countDown();
+        closer.join(5000);
+        assertFalse(closer.isAlive(), "Shutdown finishes");
+
+        assertThrows(java.util.concurrent.RejectedExecutionException.class, batch::await);
+        assertEquals(0, ran.get(), "Queued tasks are rejected, not run");
+        assertThrows(java.util.concurrent.RejectedExecutionException.class,
+                () -> executor.submitAll(List.of(ran::incrementAndGet)));
+    }
+
+    @Test
+    public void testDispatchPoliciesWithManyWorkers() throws InterruptedException {
+        for (DispatchPolicy policy : DispatchPolicy.values()) {
+            TiredExecutor executor = new TiredExecutor(128, ExecutionMode.HANDOFF, policy);
+            AtomicInteger done = new AtomicInteger();
+            List<Runnable> tasks = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                tasks.add(done::incrementAndGet);
+            }
+            executor.submitAll(tasks);
+            executor.submitAll(tasks);
+            assertEquals(10000, done.get());
+            String report = executor.getFairnessReport();
+            executor.shutdown();
+            assertTrue(report.contains("Fairness Score"));
+            assertTrue(report.contains("Dispatch: Policy=" + policy + ", Picks=10000"), report);
+        }
+        TiredExecutor byDefault = new TiredExecutor(2);
+        String report = byDefault.getFairnessReport();
+        byDefault.shutdown();
+        assertTrue(report.contains("Dispatch: Policy=LEAST_TIRED"), "Two choices is opt-in: " + report);
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(2, ExecutionMode.HANDOFF, DispatchPolicy.TWO_CHOICES)) {
+            assertTrue(engine.getWorkerReport().contains("Dispatch: Policy=TWO_CHOICES"), "The engine passes its policy on");
+        }
+    }
+
+    @Test
+    public void testChunkSizeDoesNotChangeResults() {
+        double[][] a = new double[300][40];
+        double[][] b = new double[300][40];
+        for (int i = 0; i < 300; i++) {
+            for (int j = 0; j < 40; j++) {
+                a[i][j] = i;
+                b[i][j] = j;
+            }
+        }
+        try (LinearAlgebraEngine engine = new LinearAlgebraEngine(4)) {
+            for (int chunk : new int[]{0, 1, 7, 1000}) {
+                engine.setChunkSize(chunk);
+                ComputationNode sum = new ComputationNode("+", List.of(new ComputationNode(a), new ComputationNode(b)));
+                double[][] result = engine.run(sum).getMatrix();
+                assertEquals(300, result.length);
+                assertEquals(299.0 + 39.0, result[299][39], 1e-9, "chunk size " + chunk);
+            }
+        }
+    }
+
+    @Test
+    public void testEngineRunsManyJobsAndConcurrentJobs() throws Exception {
+        double[][] m = {{1, 2}, {3, 4}};
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(3);
+        for (int job = 0; job < 20; job++) {
+            ComputationNode product = new ComputationNode("*", List.of(new ComputationNode(m), new ComputationNode(m)));
+            assertArrayEquals(new double[]{7, 10}, engine.run(product).getMatrix()[0], 1e-9);
+            assertEquals(1, engine.getLastJobStats().getNodesComputed());
+        }
+
+        List<Thread> clients = new ArrayList<>();
+        AtomicInteger correct = new AtomicInteger();
+        for (int c = 0; c < 4; c++) {
+            Thread client = new Thread(() -> {
+                for (int job = 0; job < 10; job++) {
+                    ComputationNode sum = new ComputationNode("+", List.of(new ComputationNode(m), new ComputationNode(m)));
+                    spl.lae.JobStats stats = new spl.lae.JobStats();
+                    if (engine.run(sum, stats).getMatrix()[1][1] == 8 && stats.getTasks() > 0) {
+                        correct.incrementAndGet();
+                    }
+                }
+            });
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        assertEquals(40, correct.get());
+        assertEquals(60, engine.getJobsCompleted());
+
+        engine.close();
+        engine.close();
+        assertTrue(engine.isClosed());
+        assertThrows(IllegalStateException.class, () -> engine.run(new ComputationNode(m)));
+    }
+}
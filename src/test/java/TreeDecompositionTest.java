@@ -1,6 +1,13 @@
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import metrics.Metrics;
 import parser.*;
+import scheduling.ExecutionMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -38,4 +45,70 @@ public class TreeDecompositionTest {
         // Should pick the ADD node because it has concrete matrix children
         assertEquals(ComputationNodeType.ADD, root.findResolvable().getNodeType());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFindAllResolvableCollectsIndependentSubtrees() {
+        double[][] m = {{1}};
+        ComputationNode left = new ComputationNode("+", List.of(new ComputationNode(m), new ComputationNode(m)));
+        ComputationNode right = new ComputationNode("-", List.of(new ComputationNode(m)));
+        ComputationNode root = new ComputationNode("*", List.of(left, right));
+        List<ComputationNode> ready = root.findAllResolvable();
+        assertEquals(2, ready.size(), "Both operands of the root are ready");
+        assertSame(left, ready.get(0));
+        assertSame(right, ready.get(1));
+    }
+
+    @Test
+    public void testQuickBranchDoesNotWaitForSlowSibling(@TempDir Path dir) throws Exception {
+        double[][] small = new double[8][8];
+        double[][] big = new double[500][500];
+        for (int i = 0; i < 8; i++) small[i][i] = 1;
+        double[][] pick = new double[8][500];
+        double[][] cut = new double[500][8];
+        for (int i = 0; i < 500; i++) big[i][(i + 1) % 500] = 1;
+        for (int i = 0; i < 8; i++) pick[i][i] = cut[i][i] = 1;
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            // S*S*S*S + pick * (B*B + B) * cut: the chain of small products need not wait for B*B
+            ComputationNode chain = new ComputationNode(small);
+            for (int i = 0; i < 3; i++) {
+                chain = new ComputationNode("*", List.of(chain, new ComputationNode(small)));
+            }
+            ComputationNode slow = new ComputationNode("*", List.of(new ComputationNode(big), new ComputationNode(big)));
+            ComputationNode shifted = new ComputationNode("+", List.of(slow, new ComputationNode(big)));
+            ComputationNode corner = new ComputationNode("*", new ArrayList<>(List.of(new ComputationNode(pick), shifted, new ComputationNode(cut))));
+            ComputationNode root = new ComputationNode("+", List.of(chain, corner));
+
+            Metrics metrics = new Metrics();
+            metrics.enableTrace(10_000);
+            try (spl.lae.LinearAlgebraEngine engine = new spl.lae.LinearAlgebraEngine(2, mode)) {
+                engine.setChunkSize(1000); // one task per node
+                engine.setMetrics(metrics);
+                double[][] result = engine.run(root).getMatrix();
+                assertArrayEquals(new double[]{1, 1, 1, 0, 0, 0, 0, 0}, result[0], mode + ": I + corner of P^2 + P");
+            }
+            Path trace = dir.resolve(mode + ".trace.json");
+            metrics.writeTrace(trace);
+            List<long[]> rounds = new ArrayList<>(); // {end, duration}
+            for (JsonNode event : new ObjectMapper().readTree(Files.readString(trace)).get("traceEvents")) {
+                if (event.get("ph").asText().equals("X") && event.get("name").asText().equals("round")) {
+                    long ts = event.get("ts").asLong();
+                    long dur = event.get("dur").asLong();
+                    rounds.add(new long[]{ts + dur, dur});
+                }
+            }
+            long[] slowest = rounds.get(0);
+            for (long[] round : rounds) {
+                if (round[1] > slowest[1]) {
+                    slowest = round;
+                }
+            }
+            int doneBefore = 0;
+            for (long[] round : rounds) {
+                if (round[0] < slowest[0]) {
+                    doneBefore++;
+                }
+            }
+            assertTrue(doneBefore >= 3, mode + ": the chain finished while B*B ran, but only " + doneBefore + " nodes did");
+        }
+    }
+}
@@ -1,6 +1,10 @@
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 import memory.*;
+import parser.ComputationNode;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class VectorAndMatrixTest {
     private static final double DELTA = 1e-6;
@@ -60,4 +64,175 @@ public class VectorAndMatrixTest {
         assertEquals(5.0, v.get(0), DELTA);
         assertEquals(10.0, v.get(1), DELTA);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMultiplyByColumnMajorMatrix() {
+        SharedVector v = new SharedVector(new double[]{1, 2}, VectorOrientation.ROW_MAJOR);
+        SharedMatrix m = new SharedMatrix();
+        m.loadColumnMajor(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        v.vecMatMul(m);
+        assertEquals(3, v.length());
+        assertEquals(9.0, v.get(0), DELTA);
+        assertEquals(12.0, v.get(1), DELTA);
+        assertEquals(15.0, v.get(2), DELTA);
+    }
+
+    // --- Contiguous storage ---
+    @Test
+    public void testRowViewsWriteThroughToMatrix() {
+        SharedMatrix m = new SharedMatrix(new double[][]{{1, 2}, {3, 4}});
+        m.get(1).negate();
+        double[][] result = m.readRowMajor();
+        assertArrayEquals(new double[]{1, 2}, result[0], DELTA);
+        assertArrayEquals(new double[]{-3, -4}, result[1], DELTA);
+    }
+
+    @Test
+    public void testColumnMajorRoundTrip() {
+        double[][] data = {{1, 2, 3}, {4, 5, 6}};
+        SharedMatrix m = new SharedMatrix();
+        m.loadColumnMajor(data);
+        assertEquals(3, m.length());
+        assertEquals(5.0, m.get(1).get(1), DELTA);
+        double[][] result = m.readRowMajor();
+        for (int i = 0; i < data.length; i++) {
+            assertArrayEquals(data[i], result[i], DELTA);
+        }
+    }
+
+    @Test
+    public void testWithOrientationKeepsLogicalMatrix() {
+        double[][] data = {{1, 2, 3}, {4, 5, 6}};
+        SharedMatrix rows = new SharedMatrix(data);
+        SharedMatrix cols = rows.withOrientation(VectorOrientation.COLUMN_MAJOR);
+        assertEquals(VectorOrientation.COLUMN_MAJOR, cols.getOrientation());
+        assertEquals(3, cols.length());
+        assertSame(cols, cols.withOrientation(VectorOrientation.COLUMN_MAJOR));
+        double[][] result = cols.readRowMajor();
+        for (int i = 0; i < data.length; i++) {
+            assertArrayEquals(data[i], result[i], DELTA);
+        }
+    }
+
+    @Test
+    public void testTransposedIsAViewOverTheSameStorage() {
+        SharedMatrix m = new SharedMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        SharedMatrix t = m.transposed();
+        assertEquals(3, t.rowCount());
+        assertEquals(2, t.columnCount());
+        double[][] result = t.readRowMajor();
+        assertArrayEquals(new double[]{1, 4}, result[0], DELTA);
+        assertArrayEquals(new double[]{3, 6}, result[2], DELTA);
+        m.get(0).negate();
+        assertEquals(-2.0, t.readRowMajor()[1][0], DELTA, "Writes through the original show in the view");
+    }
+
+    @Test
+    public void testParkRoundTripReturnsBufferToPool() {
+        OffHeapPool pool = new OffHeapPool(1 << 20);
+        SharedMatrix m = new SharedMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        m.park(pool);
+        assertTrue(m.isParked());
+        assertEquals(2, m.rowCount());
+        assertEquals(3, m.columnCount());
+        assertTrue(pool.getLiveBytes() > 0);
+
+        assertArrayEquals(new double[]{4, 5, 6}, m.readRowMajor()[1], DELTA);
+        assertFalse(m.isParked());
+        assertEquals(0, pool.getLiveBytes(), "Buffer goes back once the matrix is read again");
+    }
+
+    @Test
+    public void testTransposingUnparksAndPinsTheStorage() {
+        OffHeapPool pool = new OffHeapPool(1 << 20);
+        SharedMatrix m = new SharedMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        m.park(pool);
+        SharedMatrix t = m.transposed();
+        assertFalse(m.isParked());
+        assertEquals(0, pool.getLiveBytes());
+
+        m.park(pool);
+        t.park(pool);
+        assertFalse(m.isParked(), "Storage shared with a view stays put");
+        assertFalse(t.isParked());
+        t.get(1).negate(); // a column of the view is a row of the original
+        assertArrayEquals(new double[]{-4, -5, -6}, m.readRowMajor()[1], DELTA);
+    }
+
+    @Test
+    public void testVectorTakenBeforeParkingIsDetached() throws Exception {
+        OffHeapPool pool = new OffHeapPool(1 << 20);
+        SharedMatrix m = new SharedMatrix(new double[][]{{1, 2}, {3, 4}});
+        SharedVector stale = m.get(0);
+        SharedVector other = new SharedVector(new double[]{10, 10}, VectorOrientation.ROW_MAJOR);
+        m.park(pool);
+
+        assertThrows(IllegalStateException.class, () -> stale.add(other), "A write would be lost");
+        assertThrows(IllegalStateException.class, () -> other.add(stale));
+        assertThrows(IllegalStateException.class, () -> stale.get(0));
+        assertEquals(10.0, CompletableFuture.supplyAsync(() -> other.get(0)).get(10, TimeUnit.SECONDS), DELTA,
+                "The failed add does not leave the other vector locked");
+        assertArrayEquals(new double[][]{{1, 2}, {3, 4}}, m.readRowMajor());
+
+        m.get(0).add(other);
+        assertArrayEquals(new double[]{11, 12}, m.readRowMajor()[0], DELTA);
+    }
+
+    @Test
+    public void testReleaseFreesParkedStorage() {
+        OffHeapPool pool = new OffHeapPool(1 << 20);
+        SharedMatrix m = new SharedMatrix(new double[][]{{1, 2}, {3, 4}});
+        m.park(pool);
+        m.release();
+        assertEquals(0, pool.getLiveBytes());
+        assertTrue(pool.getPooledBytes() > 0, "The buffer is kept for reuse");
+        assertEquals(0, m.length());
+    }
+
+    @Test
+    public void testParkedRunMatchesPlainRun() {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{0, 1}, {1, 0}};
+        double[][] expected = null;
+        for (boolean parking : new boolean[]{false, true}) {
+            ComputationNode product = new ComputationNode("*", List.of(new ComputationNode(a), new ComputationNode(b)));
+            ComputationNode sum = new ComputationNode("+", List.of(product, new ComputationNode(a)));
+            ComputationNode root = new ComputationNode("T", List.of(sum));
+            double[][] result;
+            try (spl.lae.LinearAlgebraEngine engine = new spl.lae.LinearAlgebraEngine(2)) {
+                engine.setParking(parking);
+                result = engine.run(root).getMatrix();
+            }
+            if (expected == null) {
+                expected = result;
+            }
+            else {
+                assertArrayEquals(expected, result);
+            }
+        }
+        assertArrayEquals(new double[][]{{3, 7}, {3, 7}}, expected);
+    }
+
+    @Test
+    public void testKernelsHandleTails() {
+        // Odd lengths and offsets exercise both the vector body and the scalar tail of a SIMD build
+        double[] a = new double[23];
+        double[] b = new double[23];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = i + 1;
+            b[i] = 2 - i;
+        }
+        double expectedDot = 0;
+        for (int i = 2; i < 21; i++) {
+            expectedDot += a[i] * b[i + 1];
+        }
+        assertEquals(expectedDot, VectorKernels.dot(a, 2, b, 3, 19), DELTA);
+
+        double[] y = b.clone();
+        VectorKernels.axpy(3, a, 1, y, 0, 21);
+        for (int i = 0; i < 21; i++) {
+            assertEquals(b[i] + 3 * a[i + 1], y[i], DELTA);
+        }
+        assertEquals(b[22], y[22], DELTA, "Past the length nothing changes");
+    }
+}